@@ -0,0 +1,202 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.util.Arrays;
+
+// The board as columns of primitives instead of parallel lists of AWT objects.
+// Each shape is a type tag, four coordinates (see ShapeRecord), a start point and a packed RGB,
+// plus a text and an author reference. About 40 bytes a shape, and the columns can never get out of step.
+public class BoardModel implements BoardView {
+    // Text has no font metrics on the server, its bounds are estimated from the default 12pt font
+    private static final int CHAR_WIDTH = 8;
+    private static final int TEXT_ASCENT = 14;
+    private static final int TEXT_DESCENT = 4;
+
+    private int size = 0;
+    private byte[] types;
+    private float[] coords; // 4 per shape
+    private int[] points; // x, y per shape
+    private int[] rgbs;
+    private String[] texts; // null except for text boxes
+    private String[] authors; // null when unknown, e.g. loaded from a file
+
+    // Reused by draw() so painting does not allocate a shape object per element
+    private final Line2D.Float line = new Line2D.Float();
+    private final Ellipse2D.Float ellipse = new Ellipse2D.Float();
+    private final Rectangle rectangle = new Rectangle();
+
+    public BoardModel() {
+        this(16);
+    }
+
+    public BoardModel(int capacity) {
+        capacity = Math.max(capacity, 1);
+        types = new byte[capacity];
+        coords = new float[capacity * 4];
+        points = new int[capacity * 2];
+        rgbs = new int[capacity];
+        texts = new String[capacity];
+        authors = new String[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(texts, 0, size, null);
+        Arrays.fill(authors, 0, size, null);
+        size = 0;
+    }
+
+    public int add(ShapeRecord shape, String author) {
+        return add(shape.getType(), shape.getA(), shape.getB(), shape.getC(), shape.getD(),
+                shape.getX(), shape.getY(), shape.getRgb(), shape.getText(), author);
+    }
+
+    // Returns the index of the new shape
+    public int add(byte type, float a, float b, float c, float d, int x, int y, int rgb, String text, String author) {
+        if (size == types.length) {
+            grow(Math.max(size * 2, types.length));
+        }
+        int i = size++;
+        types[i] = type;
+        coords[i * 4] = a;
+        coords[i * 4 + 1] = b;
+        coords[i * 4 + 2] = c;
+        coords[i * 4 + 3] = d;
+        points[i * 2] = x;
+        points[i * 2 + 1] = y;
+        rgbs[i] = rgb;
+        texts[i] = text;
+        authors[i] = author;
+        return i;
+    }
+
+    // Copy shape i of any board
+    public int add(BoardView other, int i) {
+        return add(other.type(i), other.coord(i, 0), other.coord(i, 1), other.coord(i, 2), other.coord(i, 3),
+                other.x(i), other.y(i), other.rgb(i), other.text(i), other.author(i));
+    }
+
+    public void addAll(BoardModel other) {
+        addRange(other, 0, other.size);
+    }
+
+    // Append shapes from to to (exclusive) of another board
+    public void addRange(BoardModel other, int from, int to) {
+        int count = to - from;
+        if (size + count > types.length) {
+            grow(Math.max(size + count, types.length * 2));
+        }
+        System.arraycopy(other.types, from, types, size, count);
+        System.arraycopy(other.coords, from * 4, coords, size * 4, count * 4);
+        System.arraycopy(other.points, from * 2, points, size * 2, count * 2);
+        System.arraycopy(other.rgbs, from, rgbs, size, count);
+        System.arraycopy(other.texts, from, texts, size, count);
+        System.arraycopy(other.authors, from, authors, size, count);
+        size += count;
+    }
+
+    public BoardModel copy() {
+        BoardModel copy = new BoardModel(size);
+        copy.addAll(this);
+        return copy;
+    }
+
+    private void grow(int capacity) {
+        types = Arrays.copyOf(types, capacity);
+        coords = Arrays.copyOf(coords, capacity * 4);
+        points = Arrays.copyOf(points, capacity * 2);
+        rgbs = Arrays.copyOf(rgbs, capacity);
+        texts = Arrays.copyOf(texts, capacity);
+        authors = Arrays.copyOf(authors, capacity);
+    }
+
+    public byte type(int i) {
+        return types[i];
+    }
+
+    public float coord(int i, int k) {
+        return coords[i * 4 + k];
+    }
+
+    public int x(int i) {
+        return points[i * 2];
+    }
+
+    public int y(int i) {
+        return points[i * 2 + 1];
+    }
+
+    public int rgb(int i) {
+        return rgbs[i];
+    }
+
+    public void setRgb(int i, int rgb) {
+        rgbs[i] = rgb;
+    }
+
+    public void setPoint(int i, int x, int y) {
+        points[i * 2] = x;
+        points[i * 2 + 1] = y;
+    }
+
+    public String text(int i) {
+        return texts[i];
+    }
+
+    public String author(int i) {
+        return authors[i];
+    }
+
+    public ShapeRecord get(int i) {
+        return new ShapeRecord(types[i], coords[i * 4], coords[i * 4 + 1], coords[i * 4 + 2], coords[i * 4 + 3],
+                points[i * 2], points[i * 2 + 1], rgbs[i], texts[i]);
+    }
+
+    public Rectangle bounds(int i) {
+        Rectangle bounds;
+        float a = coords[i * 4], b = coords[i * 4 + 1], c = coords[i * 4 + 2], d = coords[i * 4 + 3];
+        switch (types[i]) {
+            case ShapeRecord.LINE:
+                int minX = (int) Math.floor(Math.min(a, c));
+                int minY = (int) Math.floor(Math.min(b, d));
+                bounds = new Rectangle(minX, minY,
+                        (int) Math.ceil(Math.max(a, c)) - minX, (int) Math.ceil(Math.max(b, d)) - minY);
+                break;
+            case ShapeRecord.TEXT:
+                bounds = new Rectangle(x(i), y(i) - TEXT_ASCENT,
+                        texts[i].length() * CHAR_WIDTH, TEXT_ASCENT + TEXT_DESCENT);
+                break;
+            default:
+                bounds = new Rectangle((int) Math.floor(a), (int) Math.floor(b), (int) Math.ceil(c) + 1, (int) Math.ceil(d) + 1);
+        }
+        bounds.grow(2, 2);
+        return bounds;
+    }
+
+    // Paint one shape without creating AWT objects for it
+    public void draw(Graphics2D board2D, int i) {
+        if (board2D.getColor().getRGB() != rgbs[i]) {
+            board2D.setColor(new Color(rgbs[i], true));
+        }
+        float a = coords[i * 4], b = coords[i * 4 + 1], c = coords[i * 4 + 2], d = coords[i * 4 + 3];
+        switch (types[i]) {
+            case ShapeRecord.LINE:
+                line.setLine(a, b, c, d);
+                board2D.draw(line);
+                break;
+            case ShapeRecord.ELLIPSE:
+                ellipse.setFrame(a, b, c, d);
+                board2D.draw(ellipse);
+                break;
+            case ShapeRecord.RECTANGLE:
+                rectangle.setBounds((int) a, (int) b, (int) c, (int) d);
+                board2D.draw(rectangle);
+                break;
+            case ShapeRecord.TEXT:
+                board2D.drawString(texts[i], x(i), y(i));
+                break;
+        }
+    }
+}
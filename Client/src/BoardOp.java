@@ -0,0 +1,63 @@
+import java.io.*;
+
+// One shape accepted by the server, numbered in the order the server applied it
+public class BoardOp implements Externalizable {
+    private static final long serialVersionUID = 2L;
+
+    private long seq;
+    private String author; // Who drew it, null if unknown (loaded from a file)
+    private ShapeRecord shape;
+
+    public BoardOp() {
+        // Needed by Externalizable
+    }
+
+    public BoardOp(long seq, String author, ShapeRecord shape) {
+        this.seq = seq;
+        this.author = author;
+        this.shape = shape;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public ShapeRecord getShape() {
+        return shape;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(seq);
+        out.writeBoolean(author != null);
+        if (author != null) {
+            out.writeUTF(author);
+        }
+        shape.write(out);
+    }
+
+    public static BoardOp read(DataInput in) throws IOException {
+        BoardOp op = new BoardOp();
+        op.readFields(in);
+        return op;
+    }
+
+    private void readFields(DataInput in) throws IOException {
+        seq = in.readLong();
+        author = in.readBoolean() ? in.readUTF() : null;
+        shape = ShapeRecord.read(in);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        write(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFields(in);
+    }
+}
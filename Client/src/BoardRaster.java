@@ -0,0 +1,99 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.BufferedImage;
+
+// Committed shapes rendered once into an offscreen image.
+// Shapes appended to the board are drawn into the image on the next paint, the whole image is only
+// redrawn after invalidate() (board cleared or replaced) or when the view is panned or zoomed, and then only
+// the shapes in sight. A resize only draws the newly exposed area.
+public class BoardRaster {
+    private BufferedImage image;
+    private int paintedCount = 0; // Number of shapes already drawn into the image
+    private AffineTransform view = new AffineTransform(); // Board to screen transform the image was drawn with
+
+    // Board was replaced, redraw everything on the next paint
+    public void invalidate() {
+        paintedCount = -1;
+    }
+
+    public void paint(Graphics2D board2D, Component board, ShapeGrid grid, BoardModel shapes) {
+        paint(board2D, board, grid, shapes, new AffineTransform());
+    }
+
+    // view maps board coordinates to the component, for a board larger than the window
+    public void paint(Graphics2D board2D, Component board, ShapeGrid grid, BoardModel shapes, AffineTransform view) {
+        int width = Math.max(1, board.getWidth());
+        int height = Math.max(1, board.getHeight());
+        if (!view.equals(this.view)) {
+            this.view = new AffineTransform(view);
+            paintedCount = -1;
+        }
+        if (image == null || paintedCount < 0 || paintedCount > shapes.size()) {
+            image = newImage(board, width, height);
+            paintedCount = 0;
+            drawArea(board, grid, shapes, new Rectangle(0, 0, width, height), shapes.size());
+            paintedCount = shapes.size();
+        } else if (image.getWidth() != width || image.getHeight() != height) {
+            resize(board, grid, width, height, shapes);
+        }
+        if (paintedCount < shapes.size()) {
+            Graphics2D imageGraphics = image.createGraphics();
+            imageGraphics.setFont(board.getFont());
+            imageGraphics.transform(this.view);
+            for (int i = paintedCount; i < shapes.size(); i++) {
+                shapes.draw(imageGraphics, i);
+            }
+            imageGraphics.dispose();
+            paintedCount = shapes.size();
+        }
+        board2D.drawImage(image, 0, 0, null);
+    }
+
+    // Keep what was already rendered, only the newly exposed strips are drawn from the shapes in them
+    private void resize(Component board, ShapeGrid grid, int width, int height, BoardModel shapes) {
+        BufferedImage old = image;
+        image = newImage(board, width, height);
+        Graphics2D imageGraphics = image.createGraphics();
+        imageGraphics.drawImage(old, 0, 0, null);
+        imageGraphics.dispose();
+        Rectangle[] exposed = {
+                new Rectangle(old.getWidth(), 0, width - old.getWidth(), height),
+                new Rectangle(0, old.getHeight(), Math.min(old.getWidth(), width), height - old.getHeight())
+        };
+        for (Rectangle strip : exposed) {
+            if (!strip.isEmpty()) {
+                drawArea(board, grid, shapes, strip, paintedCount); // Newer shapes are drawn whole by paint()
+            }
+        }
+    }
+
+    // Draw the shapes below count that show in an area of the image, found through the spatial index
+    private void drawArea(Component board, ShapeGrid grid, BoardModel shapes, Rectangle area, int count) {
+        Rectangle boardArea;
+        try {
+            boardArea = view.createInverse().createTransformedShape(area).getBounds();
+        } catch (NoninvertibleTransformException e) {
+            return; // Zoomed to nothing
+        }
+        Graphics2D imageGraphics = image.createGraphics();
+        imageGraphics.setFont(board.getFont());
+        imageGraphics.setClip(area);
+        imageGraphics.transform(view);
+        for (int i : grid.query(boardArea)) {
+            if (i < count) {
+                shapes.draw(imageGraphics, i);
+            }
+        }
+        imageGraphics.dispose();
+    }
+
+    private static BufferedImage newImage(Component board, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D imageGraphics = image.createGraphics();
+        imageGraphics.setColor(board.getBackground());
+        imageGraphics.fillRect(0, 0, width, height);
+        imageGraphics.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,27 @@
+import java.awt.*;
+
+// Read access to a board, shape by shape in drawing order.
+// Implemented by the mutable BoardModel and by the server's immutable BoardState.
+public interface BoardView {
+    int size();
+
+    byte type(int i);
+
+    // k is 0 to 3, see ShapeRecord for what the four coordinates mean per type
+    float coord(int i, int k);
+
+    int x(int i);
+
+    int y(int i);
+
+    int rgb(int i);
+
+    String text(int i);
+
+    String author(int i);
+
+    ShapeRecord get(int i);
+
+    // Area the shape paints into, stroke included
+    Rectangle bounds(int i);
+}
@@ -1,5 +1,6 @@
 import java.rmi.Naming;
 import java.rmi.RemoteException;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.rmi.NotBoundException;
 import java.net.ConnectException;
@@ -45,22 +46,37 @@ public class Client {
                 ClientObj client = new ClientObj();
                 client.setClientName(username);
                 ServerInterface server = (ServerInterface) Naming.lookup("rmi://" + serverAddress + ":" + portNumber + "/ServerRemoteObj");
+                client.server = server;
                 connected = true;
                 System.out.println("Connected to the server ");
 
-                int isJoin = server.join(username, client);
+                // Take updates over the push channel if the server has one, turned off with -Dwhiteboard.push=false
+                long pushToken = -1;
+                int pushPort = server.getPushPort();
+                if (pushPort > 0 && Boolean.parseBoolean(System.getProperty("whiteboard.push", "true"))) {
+                    try {
+                        pushToken = PushReceiver.connect(serverAddress, pushPort, client).getToken();
+                    } catch (IOException e) {
+                        System.out.println("Push channel unavailable, using RMI callbacks");
+                        e.printStackTrace();
+                    }
+                }
+
+                int isJoin = join(server, client, pushToken);
                 while (true) {
-                    if (isJoin == 2) {
+                    if (isJoin == ServerInterface.NAME_TAKEN) {
                         System.out.println("name duplicate");
                         ClientGUI.loginError("Username already exists! Please try other names.");
                         login(ClientGUI.login()); // Retry
-                        isJoin = server.join(username, client);
-                    } else if (isJoin == 1) {
+                        isJoin = join(server, client, pushToken);
+                    } else if (isJoin == ServerInterface.REFUSED) {
                         ClientGUI.loginError("Manager refused your connection!");
                         login(ClientGUI.login()); // Retry
-                        isJoin = server.join(username, client);
+                        isJoin = join(server, client, pushToken);
                     } else { // Successfully joined in
                         System.out.println("login success");
+                        // Large payloads such as the whole board are compressed if both sides can
+                        client.compression = server.negotiateCompression(client, PayloadCodec.supported());
                         break;
                     }
                 }
@@ -68,14 +84,10 @@ public class Client {
                 // set up whiteboard after logged in
                 SwingUtilities.invokeLater(() -> {
                     client.clientGUI = new ClientGUI(server, client);
-                    try {
-                        server.syncClientList();
-                        client.updateBoardStatus(server.getServerShapes(), server.getServerColors(), server.getServerShapesPositions());
-                    } catch (RemoteException e) {
-                        System.out.println("Error on syncing server white board");
-                        e.printStackTrace();
-                    }
+                    client.clientGUI.syncClientList();
                     client.clientGUI.setVisible(true);
+                    // The board comes in chunks after the window is up, later ops come through applyUpdates
+                    client.loadBoard();
                 });
                 System.out.println("Joined the server! Your name: " + username);
             } catch (NotBoundException e) {
@@ -102,6 +114,22 @@ public class Client {
         }
     }
 
+    // The manager may answer later, the server calls back with it then
+    private static int join(ServerInterface server, ClientObj client, long pushToken) throws RemoteException {
+        client.setClientName(username);
+        int isJoin = server.join(username, client, pushToken);
+        if (isJoin == ServerInterface.PENDING) {
+            System.out.println("Waiting for the manager to approve");
+            try {
+                isJoin = client.awaitJoinResult();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return ServerInterface.REFUSED;
+            }
+        }
+        return isJoin;
+    }
+
     private static void login(String[] loginInfo) {
         username = loginInfo[0];
         serverAddress = loginInfo[1];
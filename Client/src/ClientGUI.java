@@ -10,7 +10,12 @@ import java.rmi.RemoteException;
 public class ClientGUI extends JFrame {
     private ClientInterface client;
     private ServerInterface server;
+    private PartialDrawSender partialDrawSender; // Sends drawings to the server off the Swing thread
     private whiteBoard whiteBoard;
+    // Only the visible part of the board is sent to this client, plus this margin around it
+    static final boolean VIEWPORT = Boolean.parseBoolean(System.getProperty("whiteboard.viewport", "true"));
+    private static final int VIEWPORT_MARGIN = Integer.getInteger("whiteboard.viewportMargin", 512);
+    private static final double MIN_SCALE = 0.1, MAX_SCALE = 8;
     private static Color[] colors = {Color.BLACK, Color.BLUE, Color.CYAN, Color.DARK_GRAY, Color.GRAY, Color.GREEN,
             Color.LIGHT_GRAY, Color.MAGENTA, Color.ORANGE, Color.PINK, Color.RED, Color.YELLOW,
             new Color(147, 112, 219), new Color(50, 205, 50), new Color(0, 191, 255), new Color(139, 69, 19)};
@@ -23,6 +28,9 @@ public class ClientGUI extends JFrame {
     public ClientGUI(ServerInterface server, ClientInterface client) {
         this.server = server;
         this.client = client;
+        // Evicted while unreachable, e.g. the network was down for longer than the lease
+        this.partialDrawSender = new PartialDrawSender(server, client,
+                () -> SwingUtilities.invokeLater(this::closeByServer));
 
         setTitle("Shared Whiteboard");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -176,60 +184,106 @@ public class ClientGUI extends JFrame {
         private Shape currentDrawing; // The shape is currently drawing. If null, currently not drawing.
         private Color currentColor = Color.BLACK;
         private String currentShape = "Line";
-        private int x, y; // Mouse position
+        private int x, y; // Mouse position, in board coordinates
         private int width, height; // Used for drawing shapes. Computed by mouse position
         // store drawn shapes , positions and corresponding colours
-        private ArrayList<Object> shapes;
-        private ArrayList<Color> colors;
-        private ArrayList<Point> shapePositions;
-        // Temporarily draw partial shapes
-        private Shape syncPartialDrawing;
-        private Color syncPartialColor;
-        private String syncPartialShape;
+        private BoardModel board;
+        // Committed shapes are painted from this image, not redrawn from the lists each time
+        private BoardRaster raster;
+        // Spatial index of the shapes, for partial repaints
+        private ShapeGrid grid;
+        // Temporarily draw partial shapes, one per author
+        private PartialPreviews partials;
+        // Own shapes sent to the server, shown on top until they are on the board
+        private PendingShapes pending;
+        private long boardSeq = -1; // Latest op applied to the board
         private JTextField textBox;
         private boolean textBoxEnabled = false;
+        // Pan and zoom: the board point shown at the top left corner and the size of one board pixel
+        private double originX = 0, originY = 0;
+        private double scale = 1;
+        private Point panStart; // Screen position of a pan in progress
+        private Rectangle subscribed; // Board area the server sends us, null until the first viewport is sent
 
         public whiteBoard() {
             setPreferredSize(new Dimension(700, 600));
             setBackground(Color.WHITE);
 
-            shapes = new ArrayList<>();
-            colors = new ArrayList<>();
-            shapePositions = new ArrayList<>();
+            board = new BoardModel();
 
-            syncPartialDrawing = null;
-            syncPartialColor = null;
-            syncPartialShape = null;
+            raster = new BoardRaster();
+            grid = new ShapeGrid();
+            partials = new PartialPreviews();
+            pending = new PendingShapes();
+            // Previews of users that stopped sending mid-drag are dropped after a while
+            new javax.swing.Timer(1000, e -> repaintDirty(partials.expire())).start();
 
             MouseAdapter mouseAdapter = new MouseAdapter() {
                 @Override
                 public void mousePressed(MouseEvent e) {
-                    x = e.getX();
-                    y = e.getY();
+                    // Right or middle button drags the board around
+                    if (!SwingUtilities.isLeftMouseButton(e)) {
+                        panStart = e.getPoint();
+                        return;
+                    }
+                    Point p = toBoard(e);
+                    x = p.x;
+                    y = p.y;
                 }
 
                 @Override
                 public void mouseReleased(MouseEvent e) {
-                    clearPartialShapes();
+                    if (panStart != null) {
+                        panStart = null;
+                        return;
+                    }
                     drawShape(e);
-                    shapes.add(currentDrawing);
-                    colors.add(currentColor);
-                    shapePositions.add(new Point(x, y));
+                    drawToServer(ShapeRecord.of(currentDrawing, currentColor, new Point(x, y)));
                     currentDrawing = null;
                     repaint();
-                    drawToServer();
                 }
 
                 @Override
                 public void mouseDragged(MouseEvent e) {
+                    if (panStart != null) {
+                        originX -= (e.getX() - panStart.x) / scale;
+                        originY -= (e.getY() - panStart.y) / scale;
+                        panStart = e.getPoint();
+                        viewChanged();
+                        return;
+                    }
+                    // Only the area of the old and new drawing is repainted
+                    Rectangle dirty = currentDrawing == null ? null : PartialPreviews.bounds(currentDrawing);
                     drawShape(e);
+                    if (currentDrawing != null) {
+                        dirty = PartialPreviews.union(dirty, PartialPreviews.bounds(currentDrawing));
+                    }
                     drawPartialToServer(currentDrawing, currentColor, currentShape);
-                    repaint();
+                    repaintDirty(dirty);
+                }
+
+                // Zoom around the mouse pointer, the board point under it stays where it is
+                @Override
+                public void mouseWheelMoved(MouseWheelEvent e) {
+                    double boardX = originX + e.getX() / scale;
+                    double boardY = originY + e.getY() / scale;
+                    double zoom = Math.pow(1.1, -e.getPreciseWheelRotation());
+                    scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * zoom));
+                    originX = boardX - e.getX() / scale;
+                    originY = boardY - e.getY() / scale;
+                    viewChanged();
                 }
             };
 
             addMouseListener(mouseAdapter);
             addMouseMotionListener(mouseAdapter);
+            addMouseWheelListener(mouseAdapter);
+            addComponentListener(new ComponentAdapter() {
+                @Override
+                public void componentResized(ComponentEvent e) {
+                    updateViewport();
+                }
+            });
 
 
             textBox = new JTextField();
@@ -242,41 +296,105 @@ public class ClientGUI extends JFrame {
                 FontMetrics fm = textBox.getFontMetrics(textBox.getFont());
 
                 // Only store the text string and its position, not the text box object itself
-                shapes.add(textBox.getText());
-                shapePositions.add(new Point(textBox.getX(), (textBox.getY() + fm.getAscent())));
-                colors.add(currentColor);
+                Point textPosition = toBoard(textBox.getX(), textBox.getY() + fm.getAscent());
+                drawToServer(ShapeRecord.of(textBox.getText(), currentColor, textPosition));
                 textBox.setText("");
                 repaint();
-                drawToServer();
             });
             add(textBox);
         }
 
-        // add a partial shape
-        public void addPartialShape(Shape curDrawing, Color curColor, String curShape) {
-            syncPartialDrawing = curDrawing;
-            syncPartialColor = curColor;
-            syncPartialShape = curShape;
+        // add or replace the partial shape of an author, null curDrawing removes it
+        public void updatePartialShape(String author, Shape curDrawing, Color curColor) {
+            repaintDirty(partials.update(author, curDrawing, curColor));
+        }
 
-            repaint();
+        // clear the partial shape of an author after its shape arrived
+        public void removePartialShape(String author) {
+            repaintDirty(partials.remove(author));
         }
 
-        // clear partial shapes after mouse released
-        public void clearPartialShapes() {
-            syncPartialDrawing = null;
-            syncPartialColor = null;
-            syncPartialShape = null;
+        // Append a committed shape to the board and the index, returns the area to repaint
+        private Rectangle appendShape(ShapeRecord shape, String author) {
+            int index = board.add(shape, author);
+            Rectangle bounds = board.bounds(index);
+            grid.add(index, bounds);
+            return bounds;
+        }
+
+        // The board was replaced or cleared, index and render it again
+        private void rebuildIndex() {
+            grid.clear();
+            for (int i = 0; i < board.size(); i++) {
+                grid.add(i, board.bounds(i));
+            }
+            raster.invalidate();
+        }
+
+        // dirty is in board coordinates
+        private void repaintDirty(Rectangle dirty) {
+            if (dirty != null) {
+                Rectangle onScreen = view().createTransformedShape(dirty).getBounds();
+                onScreen.grow(1, 1); // Rounding of the zoom
+                repaint(onScreen);
+            }
+        }
+
+        // Board to screen coordinates
+        private AffineTransform view() {
+            AffineTransform view = AffineTransform.getScaleInstance(scale, scale);
+            view.translate(-originX, -originY);
+            return view;
+        }
+
+        private Point toBoard(MouseEvent e) {
+            return toBoard(e.getX(), e.getY());
+        }
+
+        private Point toBoard(int screenX, int screenY) {
+            return new Point((int) Math.floor(originX + screenX / scale), (int) Math.floor(originY + screenY / scale));
+        }
+
+        // Part of the board on screen
+        private Rectangle visibleArea() {
+            return new Rectangle((int) Math.floor(originX), (int) Math.floor(originY),
+                    (int) Math.ceil(getWidth() / scale) + 1, (int) Math.ceil(getHeight() / scale) + 1);
+        }
+
+        private void viewChanged() {
             repaint();
+            updateViewport();
+        }
+
+        // Ask for a bigger area once the visible one leaves what the server sends us, with a margin
+        // so small pans do not each cost a round trip
+        private void updateViewport() {
+            if (!VIEWPORT) {
+                return;
+            }
+            Rectangle visible = visibleArea();
+            if (subscribed == null || !subscribed.contains(visible)) {
+                subscribe(visible);
+            }
+        }
+
+        // Fresh copy of the visible area, after joining or when updates were lost
+        private void subscribe(Rectangle visible) {
+            int margin = Math.max(VIEWPORT_MARGIN, Math.max(visible.width, visible.height) / 2);
+            subscribed = new Rectangle(visible);
+            subscribed.grow(margin, margin);
+            partialDrawSender.setViewport(subscribed);
         }
 
 
         private void drawShape(MouseEvent e) {
-            width = e.getX() - x;
-            height = e.getY() - y;
+            Point p = toBoard(e);
+            width = p.x - x;
+            height = p.y - y;
 
             switch (currentShape) {
                 case "Line":
-                    currentDrawing = new Line2D.Float(x, y, e.getX(), e.getY());
+                    currentDrawing = new Line2D.Float(x, y, p.x, p.y);
                     break;
                 case "Circle":
                     int diameter = Math.max(Math.abs(width), Math.abs(height));
@@ -314,42 +432,44 @@ public class ClientGUI extends JFrame {
             super.paintComponent(board);
             Graphics2D board2D = (Graphics2D) board;
 
-            // Draw the all shapes and text boxes
-            for (int i = 0; i < shapes.size(); i++) {
-                board2D.setColor(colors.get(i));
-                if (shapes.get(i) instanceof Shape) {
-                    board2D.draw((Shape) shapes.get(i));
-                } else if (shapes.get(i) instanceof String) { // If it's text box
-                    board2D.drawString((String) shapes.get(i), (int) shapePositions.get(i).getX(), (int) shapePositions.get(i).getY());
-                }
-            }
+            // Draw the all shapes and text boxes, only new ones are rendered, the rest comes from the cached image
+            raster.paint(board2D, this, grid, this.board, view());
+
+            Graphics2D onBoard = (Graphics2D) board2D.create();
+            onBoard.transform(view());
+
+            // Own shapes the server has not put on the board yet
+            pending.paint(onBoard);
 
             // Draw the partial shapes
-            if (syncPartialDrawing != null) {
-                board2D.setColor(syncPartialColor);
-                board2D.draw(syncPartialDrawing);
-            }
+            partials.paint(onBoard);
 
             // Display the current drawing shape
             if (currentDrawing != null) {
-                board2D.setColor(currentColor);
-                board2D.draw(currentDrawing);
+                onBoard.setColor(currentColor);
+                onBoard.draw(currentDrawing);
             }
+            onBoard.dispose();
         }
 
-        private void drawToServer() {
-            try {
-                server.draw(client);
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
+        // Only the new shape is sent, not the whole board. It reaches the board when the server sends it
+        // back as an op, in the order the server accepted it, so every user ends up with the same board.
+        private void drawToServer(ShapeRecord shape) {
+            Object handle = pending.add(shape);
+            partialDrawSender.drawShape(shape, seq -> SwingUtilities.invokeLater(
+                    () -> repaintDirty(pending.accepted(handle, seq, boardSeq))));
         }
 
+        // Ops up to seq are on the board
+        private void boardApplied(long seq) {
+            boardSeq = seq;
+            repaintDirty(pending.applied(seq));
+        }
+
+        // Rate limited, only the latest preview of each frame reaches the server
         private void drawPartialToServer(Shape curDrawing, Color curColor, String curShape) {
-            try {
-                server.partialDraw(client, curDrawing, curColor, curShape);
-            } catch (RemoteException e) {
-                e.printStackTrace();
+            if (curDrawing != null) {
+                partialDrawSender.partialDraw(ShapeRecord.of(curDrawing, curColor, null));
             }
         }
 
@@ -377,25 +497,60 @@ public class ClientGUI extends JFrame {
 
     }
 
-    // Used to send current board status to the server
-    public List<List<?>> getBoardStatus() {
-        List<List<?>> boardStatus = new ArrayList<>();
-        boardStatus.add(whiteBoard.shapes);
-        boardStatus.add(whiteBoard.colors);
-        boardStatus.add(whiteBoard.shapePositions);
-        return boardStatus;
+    // Progress of the board download after joining, drawing works meanwhile
+    public void boardLoading(int shapes) {
+        SwingUtilities.invokeLater(() -> setTitle("Shared Whiteboard - loading board, " + shapes + " shapes so far"));
+    }
+
+    public void boardLoaded(int shapes) {
+        SwingUtilities.invokeLater(() -> setTitle("Shared Whiteboard"));
+        System.out.println("Board loaded, " + shapes + " shapes");
+    }
+
+    // Ask the server for a fresh copy of the visible area, it replaces the board when it arrives
+    public void subscribeViewport() {
+        SwingUtilities.invokeLater(() -> this.whiteBoard.subscribe(this.whiteBoard.visibleArea()));
     }
 
-    // Get sync from server
-    public void updateBoardStatus(ArrayList<Object> shapes, ArrayList<Color> colors, ArrayList<Point> shapePositions) {
-        this.whiteBoard.shapes = shapes;
-        this.whiteBoard.colors = colors;
-        this.whiteBoard.shapePositions = shapePositions;
-        this.whiteBoard.repaint();
+    // Tell everyone this user is online, goes out with the next batch
+    public void syncClientList() {
+        partialDrawSender.syncClientList();
     }
 
-    public void updatePartialDraw(Shape curDrawing, Color curColor, String curShape) {
-        this.whiteBoard.addPartialShape(curDrawing, curColor, curShape);
+    public void addShape(BoardOp op) {
+        // Append on the EDT so it does not race with paintComponent
+        SwingUtilities.invokeLater(() -> {
+            if (op.getAuthor() != null) {
+                this.whiteBoard.removePartialShape(op.getAuthor()); // The finished shape replaces its preview
+            }
+            // Only the area of the new shape is repainted
+            this.whiteBoard.repaintDirty(this.whiteBoard.appendShape(op.getShape(), op.getAuthor()));
+            this.whiteBoard.boardApplied(op.getSeq());
+        });
+    }
+
+    // Apply ops received from the server up to lastSeq, reset drops the current board first
+    public void applyOps(boolean reset, long lastSeq, List<BoardOp> ops) {
+        SwingUtilities.invokeLater(() -> {
+            if (reset) {
+                this.whiteBoard.board = new BoardModel(ops.size());
+                this.whiteBoard.rebuildIndex();
+            }
+            for (BoardOp op : ops) {
+                if (op.getAuthor() != null) {
+                    this.whiteBoard.partials.remove(op.getAuthor()); // Whole board is repainted below
+                }
+                this.whiteBoard.appendShape(op.getShape(), op.getAuthor());
+            }
+            this.whiteBoard.boardApplied(lastSeq);
+            this.whiteBoard.repaint();
+        });
+    }
+
+    public void updatePartialDraw(String author, ShapeRecord curDrawing) {
+        Shape drawing = curDrawing == null ? null : (Shape) curDrawing.toShape();
+        Color color = curDrawing == null ? null : curDrawing.color();
+        SwingUtilities.invokeLater(() -> this.whiteBoard.updatePartialShape(author, drawing, color));
     }
 
     public void closeByServer() {
@@ -419,32 +574,33 @@ public class ClientGUI extends JFrame {
         dialog.setVisible(true);
 //        client = null; // Disconnect
         server = null;
+        partialDrawSender.shutdown();
         System.out.println("client is kicked out");
 //        System.exit(0);
     }
 
     public void clear() {
-        // Reset all values
-        this.whiteBoard.shapes.clear();
-        this.whiteBoard.colors.clear();
-        this.whiteBoard.shapePositions.clear();
+        // Reset on the EDT, queued before the board sync that follows the clear
+        SwingUtilities.invokeLater(() -> {
+            // Reset all values
+            this.whiteBoard.board.clear();
 
-        this.whiteBoard.syncPartialDrawing = null;
-        this.whiteBoard.syncPartialColor = null;
-        this.whiteBoard.syncPartialShape = null;
+            this.whiteBoard.rebuildIndex();
+            this.whiteBoard.partials.clear();
 
-        this.whiteBoard.currentDrawing = null;
-        this.whiteBoard.currentColor = Color.BLACK;
-        this.whiteBoard.currentShape = "Line";
+            this.whiteBoard.currentDrawing = null;
+            this.whiteBoard.currentColor = Color.BLACK;
+            this.whiteBoard.currentShape = "Line";
 
-        this.whiteBoard.repaint();
+            this.whiteBoard.repaint();
 
-        JDialog dialog = new JDialog(this, "Notification", false);
-        dialog.setSize(250, 100);
-        dialog.setLocationRelativeTo(this);
-        dialog.getContentPane().setLayout(new BoxLayout(dialog.getContentPane(), BoxLayout.Y_AXIS));
-        dialog.getContentPane().add(new JLabel(" The server open or create a new board."));
-        dialog.getContentPane().add(new JLabel(" This is a new board now."));
-        dialog.setVisible(true);
+            JDialog dialog = new JDialog(this, "Notification", false);
+            dialog.setSize(250, 100);
+            dialog.setLocationRelativeTo(this);
+            dialog.getContentPane().setLayout(new BoxLayout(dialog.getContentPane(), BoxLayout.Y_AXIS));
+            dialog.getContentPane().add(new JLabel(" The server open or create a new board."));
+            dialog.getContentPane().add(new JLabel(" This is a new board now."));
+            dialog.setVisible(true);
+        });
     }
 }
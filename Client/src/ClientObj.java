@@ -1,4 +1,5 @@
 import java.rmi.server.UnicastRemoteObject;
+import java.io.*;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.List;
@@ -8,7 +9,18 @@ import java.util.*;
 public class ClientObj extends UnicastRemoteObject implements ClientInterface{
     // Constructor, GUI, and event listeners
     public ClientGUI clientGUI;
+    public ServerInterface server;
     private String clientName;
+    private long lastSeq = -1; // Latest board op applied, -1 before the first sync
+    private boolean catchingUp = false;
+    // The board is being downloaded in chunks, ops pushed meanwhile wait in deferred
+    private static final int LOAD_CHUNK = Integer.getInteger("whiteboard.joinChunk", 5000);
+    private boolean loading = false;
+    private final List<BoardOp> deferred = new ArrayList<>();
+    public byte compression = PayloadCodec.NONE; // Codec agreed with the server for large payloads
+    // Manager's answer to a pending join, -1 until it comes
+    private final Object joinLock = new Object();
+    private int joinResult = -1;
     public ClientObj() throws RemoteException {
         super();
     }
@@ -23,16 +35,220 @@ public class ClientObj extends UnicastRemoteObject implements ClientInterface{
         return clientName;
     }
 
-    public List<List<?>> getBoardStatus() {
-        return clientGUI.getBoardStatus();
+    public void joinResult(int result) {
+        synchronized (joinLock) {
+            joinResult = result;
+            joinLock.notifyAll();
+        }
+    }
+
+    // Wait for the answer to a join that returned PENDING
+    public int awaitJoinResult() throws InterruptedException {
+        synchronized (joinLock) {
+            while (joinResult < 0) {
+                joinLock.wait();
+            }
+            int result = joinResult;
+            joinResult = -1;
+            return result;
+        }
+    }
+
+    // Updates since the last callback, several frames in one call
+    public void applyUpdates(byte[] frames) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frames));
+        try {
+            while (in.available() > 0) {
+                byte[] frame = new byte[in.readInt()];
+                in.readFully(frame);
+                applyFrame(new DataInputStream(new ByteArrayInputStream(frame)));
+            }
+        } catch (IOException e) {
+            System.out.println("Error on reading updates from the server");
+            e.printStackTrace();
+        }
+    }
+
+    // Apply one update frame, the type byte comes first
+    public void applyFrame(DataInputStream frame) throws IOException {
+        switch (frame.readByte()) {
+            case PushFrame.COMPRESSED:
+                byte codec = frame.readByte();
+                int rawLength = frame.readInt();
+                applyUpdates(PayloadCodec.inflate(codec, rawLength, frame.readAllBytes()));
+                break;
+            case PushFrame.OP:
+                addShape(BoardOp.read(frame));
+                break;
+            case PushFrame.SYNC:
+                applySync(BoardSync.read(frame));
+                break;
+            case PushFrame.PARTIAL:
+                String author = frame.readUTF();
+                updatePartialDraw(author, frame.readBoolean() ? ShapeRecord.read(frame) : null);
+                break;
+            case PushFrame.CLIENT_LIST:
+                int count = frame.readInt();
+                List<String> clientList = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    clientList.add(frame.readUTF());
+                }
+                updateClientsList(clientList);
+                break;
+            case PushFrame.CLEAR:
+                clear();
+                break;
+            case PushFrame.KICKED:
+                kicked();
+                break;
+            default:
+                // Sent by a newer server, skip it
+                break;
+        }
+    }
+
+    public synchronized void addShape(BoardOp op){
+        if (loading) {
+            deferred.add(op); // Goes after the history still being loaded
+            return;
+        }
+        if (clientGUI == null || op.getSeq() <= lastSeq) {
+            return; // Board not shown yet, or already applied by a sync
+        }
+        if (op.getSeq() == lastSeq + 1) {
+            clientGUI.addShape(op);
+            lastSeq = op.getSeq();
+        } else { // Missed some ops, fetch them from the server
+            catchUp();
+        }
+    }
+
+    public synchronized void applySync(BoardSync sync){
+        if (loading) {
+            if (!sync.isReset()) {
+                deferred.addAll(sync.getOps());
+                return;
+            }
+            // Board was cleared or opened, this sync has all of it and the download is not needed any more
+            loading = false;
+            deferred.clear();
+            clientGUI.boardLoaded(sync.getOps().size());
+        }
+        applyOps(sync);
+    }
+
+    private void applyOps(BoardSync sync) {
+        if (clientGUI == null || sync.getLastSeq() < lastSeq || (!sync.isReset() && sync.getLastSeq() == lastSeq)) {
+            return; // Older than what is already shown
+        }
+        List<BoardOp> ops = new ArrayList<>();
+        for (BoardOp op : sync.getOps()) {
+            if (sync.isReset() || op.getSeq() > lastSeq) {
+                ops.add(op);
+            }
+        }
+        clientGUI.applyOps(sync.isReset(), sync.getLastSeq(), ops);
+        lastSeq = sync.getLastSeq();
     }
 
-    public synchronized void updateBoardStatus(ArrayList<Object> shapes, ArrayList<Color> colors, ArrayList<Point> shapePositions){
-        clientGUI.updateBoardStatus(shapes, colors, shapePositions);
+    // Download the board LOAD_CHUNK ops at a time after joining. Each chunk is shown as soon as it arrives and
+    // the user can draw meanwhile. Ops pushed while loading are held back until the last chunk, so the board
+    // still ends up in the server order.
+    // With viewport subscription only the visible area is asked for, it arrives as one reset (see applySync).
+    public void loadBoard() {
+        synchronized (this) {
+            loading = true;
+        }
+        if (ClientGUI.VIEWPORT) {
+            clientGUI.subscribeViewport();
+            return;
+        }
+        new Thread(() -> {
+            long afterSeq = -1;
+            int loaded = 0;
+            try {
+                while (true) {
+                    BoardSync chunk = readFetched(server.fetchBoard(afterSeq, LOAD_CHUNK, compression));
+                    synchronized (this) {
+                        if (!loading) {
+                            return; // Replaced by a clear/open pushed meanwhile
+                        }
+                        applyOps(chunk);
+                        afterSeq = lastSeq;
+                        loaded = chunk.isReset() ? chunk.getOps().size() : loaded + chunk.getOps().size();
+                        if (chunk.getOps().size() < LOAD_CHUNK) {
+                            finishLoading(loaded);
+                            return;
+                        }
+                        clientGUI.boardLoading(loaded);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Error on loading the server white board");
+                e.printStackTrace();
+                synchronized (this) {
+                    finishLoading(loaded);
+                    catchUp(); // Whatever is missing comes in one piece
+                }
+            }
+        }, "board-loader").start();
+    }
+
+    private void finishLoading(int loaded) {
+        loading = false;
+        clientGUI.boardLoaded(loaded);
+        List<BoardOp> held = new ArrayList<>(deferred);
+        deferred.clear();
+        for (BoardOp op : held) {
+            addShape(op);
+        }
     }
 
-    public synchronized void updatePartialDraw(Shape curDrawing, Color curColor, String curShape){
-        clientGUI.updatePartialDraw(curDrawing, curColor, curShape);
+    // The SYNC frame of a fetchBoard() answer, compressed or not
+    private static BoardSync readFetched(byte[] frames) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frames));
+        in.readInt(); // Length
+        byte type = in.readByte();
+        if (type == PushFrame.COMPRESSED) {
+            byte codec = in.readByte();
+            int rawLength = in.readInt();
+            return readFetched(PayloadCodec.inflate(codec, rawLength, in.readAllBytes()));
+        }
+        if (type != PushFrame.SYNC) {
+            throw new IOException("Unexpected frame " + type + " in board download");
+        }
+        return BoardSync.read(in);
+    }
+
+    // Runs outside the callback thread, the server may still be inside its broadcast loop
+    private void catchUp() {
+        if (catchingUp || server == null) {
+            return;
+        }
+        if (ClientGUI.VIEWPORT) {
+            clientGUI.subscribeViewport(); // The board holds only the visible area, fetch that again
+            return;
+        }
+        catchingUp = true;
+        long afterSeq = lastSeq;
+        new Thread(() -> {
+            try {
+                applySync(readFetched(server.fetchBoard(afterSeq, Integer.MAX_VALUE, compression)));
+            } catch (IOException e) {
+                System.out.println("Error on catching up with the server board");
+                e.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    catchingUp = false;
+                }
+            }
+        }).start();
+    }
+
+    public synchronized void updatePartialDraw(String author, ShapeRecord curDrawing){
+        if (clientGUI != null) {
+            clientGUI.updatePartialDraw(author, curDrawing);
+        }
     }
 
     public void closeByServer(){
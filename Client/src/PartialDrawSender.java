@@ -0,0 +1,131 @@
+import java.awt.Rectangle;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+// Sends this user's drawing to the server off the Swing thread.
+// Everything that piles up while a call is on its way goes out together in the next submitBatch(),
+// so a user far from the server pays one round trip per batch instead of one per event.
+// Previews are rate limited: at most the latest one per frame is sent, older ones are dropped.
+// Finished shapes and previews keep their order within a batch.
+// It also sends the heartbeats that keep this client on the server, every -Dwhiteboard.heartbeatMs.
+public class PartialDrawSender {
+    private static final long FRAME_MS = Long.getLong("whiteboard.partialFrameMs", 33);
+    private static final long HEARTBEAT_MS = Long.getLong("whiteboard.heartbeatMs", 5000);
+
+    private final ServerInterface server;
+    private final ClientInterface client;
+    private final ScheduledExecutorService executor;
+    private final Runnable evicted; // Told once if the server no longer knows this client
+    // Finished shapes not sent yet, and who to tell their op numbers
+    private final List<ShapeRecord> shapes = new ArrayList<>();
+    private final List<LongConsumer> accepted = new ArrayList<>();
+    // Latest preview not sent yet, null when there is none
+    private ShapeRecord pendingDrawing;
+    private boolean clientListWanted = false;
+    // Latest viewport not sent yet, null when it did not change
+    private Rectangle viewport;
+    private boolean flushScheduled = false;
+    private long lastSentTime = 0;
+
+    public PartialDrawSender(ServerInterface server, ClientInterface client, Runnable evicted) {
+        this.server = server;
+        this.client = client;
+        this.evicted = evicted;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "partial-draw-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_MS, HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void partialDraw(ShapeRecord curDrawing) {
+        pendingDrawing = curDrawing;
+        if (!flushScheduled) {
+            flushScheduled = true;
+            long delay = Math.max(0, lastSentTime + FRAME_MS - System.currentTimeMillis());
+            executor.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // accepted gets the op number the server gave the shape, or -1 if it could not be sent
+    public synchronized void drawShape(ShapeRecord shape, LongConsumer accepted) {
+        pendingDrawing = null; // The finished shape replaces any preview not sent yet
+        shapes.add(shape);
+        this.accepted.add(accepted);
+        executor.execute(this::flush); // Not held back by the preview rate limit
+    }
+
+    // Presence change, the server shares the list of online users with everyone
+    public synchronized void syncClientList() {
+        clientListWanted = true;
+        executor.execute(this::flush);
+    }
+
+    // The server sends only what is in this area of the board from now on, starting with a fresh copy of it
+    public synchronized void setViewport(Rectangle area) {
+        viewport = new Rectangle(area);
+        executor.execute(this::flush);
+    }
+
+    // A missed heartbeat is not fatal, the server allows a few before it evicts the client
+    private void heartbeat() {
+        try {
+            if (!server.heartbeat(client)) {
+                System.out.println("The server dropped this client");
+                evicted.run();
+                executor.shutdown(); // Nothing sent from now on would be accepted
+            }
+        } catch (RemoteException e) {
+            System.out.println("Heartbeat did not reach the server");
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void flush() {
+        ClientBatch batch = new ClientBatch();
+        List<LongConsumer> callbacks;
+        synchronized (this) {
+            flushScheduled = false;
+            for (ShapeRecord shape : shapes) {
+                batch.addShape(shape);
+            }
+            shapes.clear();
+            callbacks = new ArrayList<>(accepted);
+            accepted.clear();
+            if (pendingDrawing != null) {
+                batch.addPreview(pendingDrawing); // Newer than every shape, it was started after them
+                pendingDrawing = null;
+                lastSentTime = System.currentTimeMillis();
+            }
+            if (clientListWanted) {
+                batch.syncClientList();
+                clientListWanted = false;
+            }
+            if (viewport != null) {
+                batch.setViewport(viewport);
+                viewport = null;
+            }
+        }
+        if (batch.isEmpty()) {
+            return; // Already went out with an earlier batch
+        }
+        long[] seqs = null;
+        try {
+            seqs = server.submitBatch(client, batch);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+        for (int i = 0; i < callbacks.size(); i++) {
+            callbacks.get(i).accept(seqs == null ? -1 : seqs[i]);
+        }
+    }
+}
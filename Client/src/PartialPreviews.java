@@ -0,0 +1,83 @@
+import java.awt.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Shapes other users are still dragging, one per author so simultaneous drawings do not overwrite each other.
+// Every change returns the area to repaint (null if nothing changed), only used on the Swing thread.
+public class PartialPreviews {
+    // A preview not updated for this long is dropped, its author probably vanished mid-drag
+    private static final long TIMEOUT_MS = Long.getLong("whiteboard.previewTimeoutMs", 5000);
+    private static final int STROKE_MARGIN = 2; // Lines are painted slightly outside their bounds
+
+    private static class Preview {
+        Shape drawing;
+        Color color;
+        long updated;
+    }
+
+    private final Map<String, Preview> previews = new LinkedHashMap<>();
+
+    // A null drawing means the author finished or stopped drawing
+    public Rectangle update(String author, Shape drawing, Color color) {
+        if (drawing == null) {
+            return remove(author);
+        }
+        Preview preview = previews.get(author);
+        Rectangle dirty = null;
+        if (preview == null) {
+            preview = new Preview();
+            previews.put(author, preview);
+        } else {
+            dirty = bounds(preview.drawing);
+        }
+        preview.drawing = drawing;
+        preview.color = color;
+        preview.updated = System.currentTimeMillis();
+        return union(dirty, bounds(drawing));
+    }
+
+    public Rectangle remove(String author) {
+        Preview preview = previews.remove(author);
+        return preview == null ? null : bounds(preview.drawing);
+    }
+
+    // Drop previews of authors that went silent
+    public Rectangle expire() {
+        long now = System.currentTimeMillis();
+        Rectangle dirty = null;
+        Iterator<Preview> iterator = previews.values().iterator();
+        while (iterator.hasNext()) {
+            Preview preview = iterator.next();
+            if (now - preview.updated > TIMEOUT_MS) {
+                dirty = union(dirty, bounds(preview.drawing));
+                iterator.remove();
+            }
+        }
+        return dirty;
+    }
+
+    public void clear() {
+        previews.clear();
+    }
+
+    public void paint(Graphics2D board2D) {
+        for (Preview preview : previews.values()) {
+            board2D.setColor(preview.color);
+            board2D.draw(preview.drawing);
+        }
+    }
+
+    public static Rectangle bounds(Shape shape) {
+        Rectangle bounds = shape.getBounds();
+        bounds.grow(STROKE_MARGIN, STROKE_MARGIN);
+        return bounds;
+    }
+
+    public static Rectangle union(Rectangle a, Rectangle b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null ? a : a.union(b);
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Compression of large update payloads, mostly whole boards sent on join or after a clear/open.
+// The client offers the codecs it has (-Dwhiteboard.compression=deflate|none) and the server picks one.
+// Payloads under -Dwhiteboard.compressThreshold bytes are sent as they are, they would gain little.
+// Running totals of bytes and time are kept for each JVM, see summary().
+public final class PayloadCodec {
+    public static final byte NONE = 0;
+    public static final byte DEFLATE = 1;
+
+    private static final int THRESHOLD = Integer.getInteger("whiteboard.compressThreshold", 16 * 1024);
+    // Payloads this big are logged one by one
+    private static final int LOG_SIZE = Integer.getInteger("whiteboard.compressLogSize", 1 << 20);
+
+    private static final LongAdder compressed = new LongAdder();
+    private static final LongAdder rawBytes = new LongAdder();
+    private static final LongAdder compressedBytes = new LongAdder();
+    private static final LongAdder compressNanos = new LongAdder();
+    private static final LongAdder inflateNanos = new LongAdder();
+
+    private PayloadCodec() {
+    }
+
+    // Codecs this side can use, most preferred first
+    public static byte[] supported() {
+        if ("none".equalsIgnoreCase(System.getProperty("whiteboard.compression", "deflate"))) {
+            return new byte[]{NONE};
+        }
+        return new byte[]{DEFLATE, NONE};
+    }
+
+    // The codec both sides have, in this side's order of preference
+    public static byte choose(byte[] offered) {
+        for (byte codec : supported()) {
+            for (byte other : offered) {
+                if (codec == other) {
+                    return codec;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    // The frames as they are, or one COMPRESSED frame holding them
+    public static byte[] compress(byte[] frames, byte codec) {
+        if (codec != DEFLATE || frames.length < THRESHOLD) {
+            return frames;
+        }
+        long start = System.nanoTime();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED); // Cheap on CPU, shapes still shrink a lot
+        ByteArrayOutputStream out = new ByteArrayOutputStream(frames.length / 4);
+        try {
+            deflater.setInput(frames);
+            deflater.finish();
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+        long nanos = System.nanoTime() - start;
+        if (out.size() >= frames.length) {
+            return frames; // Did not help
+        }
+        compressed.increment();
+        rawBytes.add(frames.length);
+        compressedBytes.add(out.size());
+        compressNanos.add(nanos);
+        if (frames.length >= LOG_SIZE) {
+            System.out.println("Compressed " + describe(frames.length, out.size(), nanos));
+        }
+        return PushFrame.compressed(codec, frames.length, out.toByteArray());
+    }
+
+    // Payload of a COMPRESSED frame back to the frames it holds
+    public static byte[] inflate(byte codec, int rawLength, byte[] data) throws IOException {
+        if (codec != DEFLATE) {
+            throw new IOException("Unknown compression " + codec);
+        }
+        if (rawLength < 0 || rawLength > PushFrame.MAX_SIZE) {
+            throw new IOException("Bad compressed payload length " + rawLength);
+        }
+        long start = System.nanoTime();
+        Inflater inflater = new Inflater();
+        byte[] frames = new byte[rawLength];
+        try {
+            inflater.setInput(data);
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(frames, length, rawLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != rawLength) {
+                throw new IOException("Compressed payload is truncated");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed payload", e);
+        } finally {
+            inflater.end();
+        }
+        long nanos = System.nanoTime() - start;
+        compressed.increment();
+        rawBytes.add(rawLength);
+        compressedBytes.add(data.length);
+        inflateNanos.add(nanos);
+        if (rawLength >= LOG_SIZE) {
+            System.out.println("Inflated a compressed payload (" + describe(rawLength, data.length, nanos) + ")");
+        }
+        return frames;
+    }
+
+    // Totals so far, e.g. "12 payloads, 41062.4 KB to 5324.8 KB (7.7x), 310 ms compressing, 0 ms inflating"
+    public static String summary() {
+        return compressed.sum() + " payloads, " + describeSizes(rawBytes.sum(), compressedBytes.sum()) + ", "
+                + TimeUnit.NANOSECONDS.toMillis(compressNanos.sum()) + " ms compressing, "
+                + TimeUnit.NANOSECONDS.toMillis(inflateNanos.sum()) + " ms inflating";
+    }
+
+    private static String describe(long raw, long packed, long nanos) {
+        return describeSizes(raw, packed) + " in " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms";
+    }
+
+    private static String describeSizes(long raw, long packed) {
+        return String.format("%.1f KB to %.1f KB (%.1fx)", raw / 1024.0, packed / 1024.0,
+                packed == 0 ? 1.0 : (double) raw / packed);
+    }
+}
@@ -0,0 +1,69 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// Shapes this user finished that are not on the board yet. The server decides where every shape goes in the
+// board order, so own shapes are not added to the board directly: they are painted on top until the op the
+// server made of them has been applied, then the board shows them in the same order everyone else sees.
+// Only used on the Swing thread.
+public class PendingShapes {
+    private static class Pending {
+        long seq = 0; // Op number given by the server, 0 until it answered
+    }
+
+    private final List<Pending> pending = new ArrayList<>();
+    private BoardModel shapes = new BoardModel(); // Same order as pending, for painting and bounds
+
+    // Returns the handle to pass to accepted() once the server answered
+    public Object add(ShapeRecord shape) {
+        Pending added = new Pending();
+        pending.add(added);
+        shapes.add(shape, null);
+        return added;
+    }
+
+    // The server numbered the shape, a seq of -1 means it was not accepted.
+    // Returns the area to repaint if the shape is already on the board.
+    public Rectangle accepted(Object handle, long seq, long boardSeq) {
+        Pending accepted = (Pending) handle;
+        accepted.seq = seq;
+        int index = pending.indexOf(accepted);
+        if (index < 0 || (seq >= 0 && seq > boardSeq)) {
+            return null;
+        }
+        Rectangle dirty = shapes.bounds(index);
+        remove(index);
+        return dirty;
+    }
+
+    // Ops up to boardSeq are on the board now, drop the shapes they cover. A reset counts as well,
+    // a shape numbered before it was cleared away with the rest.
+    public Rectangle applied(long boardSeq) {
+        Rectangle dirty = null;
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            long seq = pending.get(i).seq;
+            if (seq != 0 && seq <= boardSeq) {
+                dirty = PartialPreviews.union(dirty, shapes.bounds(i));
+                remove(i);
+            }
+        }
+        return dirty;
+    }
+
+    private void remove(int index) {
+        pending.remove(index);
+        BoardModel rest = new BoardModel(pending.size());
+        for (int i = 0; i < shapes.size(); i++) {
+            if (i != index) {
+                rest.add(shapes, i);
+            }
+        }
+        shapes = rest;
+    }
+
+    public void paint(Graphics2D board2D) {
+        for (int i = 0; i < shapes.size(); i++) {
+            shapes.draw(board2D, i);
+        }
+    }
+}
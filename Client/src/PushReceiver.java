@@ -0,0 +1,77 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+// Client end of the push channel. Reads the frames the server writes (see PushFrame) on its own thread and
+// hands them to the ClientObj, like the applyUpdates() callback does.
+public class PushReceiver {
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final long token;
+
+    private PushReceiver(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+        DataInputStream welcome = readFrame();
+        if (welcome.readByte() != PushFrame.WELCOME) {
+            throw new IOException("Push channel did not start with a welcome frame");
+        }
+        this.token = welcome.readLong();
+    }
+
+    // Open the connection and wait for the token, updates are applied from then on
+    public static PushReceiver connect(String host, int port, ClientObj client) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        PushReceiver receiver;
+        try {
+            receiver = new PushReceiver(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        Thread thread = new Thread(() -> receiver.run(client), "push-receiver");
+        thread.setDaemon(true);
+        thread.start();
+        return receiver;
+    }
+
+    public long getToken() {
+        return token;
+    }
+
+    private DataInputStream readFrame() throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > PushFrame.MAX_SIZE) {
+            throw new IOException("Bad push frame length " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return new DataInputStream(new ByteArrayInputStream(frame));
+    }
+
+    private void run(ClientObj client) {
+        try {
+            while (true) {
+                DataInputStream frame = readFrame();
+                try {
+                    client.applyFrame(frame);
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // One bad update does not stop the channel
+                }
+            }
+        } catch (EOFException e) {
+            System.out.println("Push channel closed by the server");
+        } catch (IOException e) {
+            System.out.println("Error on receiving updates from the server");
+            e.printStackTrace();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -5,15 +5,35 @@ import java.util.ArrayList;
 import java.awt.*;
 
 public interface ServerInterface extends Remote {
-    int join(String clientName, ClientInterface client) throws RemoteException;
+    // Answers of join()
+    int JOINED = 0;
+    int REFUSED = 1; // By the manager, the board being full or the request timing out
+    int NAME_TAKEN = 2;
+    int PENDING = 3; // Waiting for the manager, the answer comes later through ClientInterface.joinResult()
+
+    // pushToken is the token got on the push channel, -1 to receive updates as RMI callbacks
+    int join(String clientName, ClientInterface client, long pushToken) throws RemoteException;
     public String getManagerName() throws RemoteException;
-    // Receive client's drawn shapes
-    void draw(ClientInterface client) throws RemoteException;
-    void partialDraw(ClientInterface client, Shape curDrawing, Color curColor, String curShape) throws RemoteException;
-    // Server sync board status to client
-    ArrayList<Object> getServerShapes() throws RemoteException;
-    ArrayList<Color> getServerColors() throws RemoteException;
-    ArrayList<Point> getServerShapesPositions() throws RemoteException;
+    // Port of the push channel, -1 if the server does not offer one
+    int getPushPort() throws RemoteException;
+    // Receive a single new shape. The server gives it the next op number, which is returned, and sends it
+    // to every client including the author, so all boards apply the shapes in the same order
+    long drawShape(ClientInterface client, ShapeRecord shape) throws RemoteException;
+    // Several shapes, previews and presence changes in one call, applied in order.
+    // Returns the op numbers given to the shapes, in the order they were in the batch
+    long[] submitBatch(ClientInterface client, ClientBatch batch) throws RemoteException;
+    // Unfinished drawing of a client, a null curDrawing means it stopped drawing
+    void partialDraw(ClientInterface client, ShapeRecord curDrawing) throws RemoteException;
+    // Ops after afterSeq, or the whole board in one consistent reply if afterSeq is before the last clear/open
+    BoardSync syncBoard(long afterSeq) throws RemoteException;
+    // Same as syncBoard but at most maxOps ops, as a SYNC frame compressed with the given codec when large.
+    // Its lastSeq is the last op included, so fetching again after it carries on where this one stopped
+    byte[] fetchBoard(long afterSeq, int maxOps, byte compression) throws RemoteException;
+    // Pick the codec for large payloads to this client from the ones it offers, see PayloadCodec
+    byte negotiateCompression(ClientInterface client, byte[] supported) throws RemoteException;
+    // Renews the client's lease, clients that stop calling are evicted. False if the client is not joined
+    // (any more), e.g. because it was evicted while its network was down.
+    boolean heartbeat(ClientInterface client) throws RemoteException;
     void leave(ClientInterface client) throws RemoteException; // A client left the server
     boolean kickout(String clientName) throws RemoteException;
     void syncClientList() throws RemoteException; // Share online clients to all clients
@@ -0,0 +1,148 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+// Join requests waiting for the manager. join() only files the request and returns PENDING, the manager
+// answers from a list that does not block anything (several requests at once if they like) and the client
+// hears back through joinResult(). Drawing goes on meanwhile, nothing here holds a lock the board uses.
+//   -Dwhiteboard.autoApprove=<regex>   names let in without asking, e.g. ".*" for everyone
+//   -Dwhiteboard.maxClients=<n>        joins are refused while n clients are on the board (0, no limit)
+//   -Dwhiteboard.joinTimeoutSec=<s>    requests not answered by then are refused (60)
+public class AdmissionQueue {
+    private static final String AUTO_APPROVE = System.getProperty("whiteboard.autoApprove", "");
+    private static final int MAX_CLIENTS = Integer.getInteger("whiteboard.maxClients", 0);
+    static final long TIMEOUT_SEC = Long.getLong("whiteboard.joinTimeoutSec", 60); // Also how long push connections wait
+
+    private static final class Request {
+        private final String name;
+        private final ClientInterface client;
+        private final long pushToken;
+        private boolean answered = false; // Guarded by the queue
+
+        private Request(String name, ClientInterface client, long pushToken) {
+            this.name = name;
+            this.client = client;
+            this.pushToken = pushToken;
+        }
+    }
+
+    private final ServerRemoteObj server;
+    private final SessionRegistry sessions;
+    private final ServerGUI serverGUI;
+    private final Pattern autoApprove;
+    // Waiting for an answer, in the order they came. A name stays reserved here until the client was told.
+    private final Map<String, Request> pending = new LinkedHashMap<>();
+    // Admits the clients and expires old requests, off the RMI and Swing threads
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "admission");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Tells the clients, a joiner that went away only holds up its own answer
+    private final ExecutorService results = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "join-result");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public AdmissionQueue(ServerRemoteObj server, SessionRegistry sessions, ServerGUI serverGUI) {
+        this.server = server;
+        this.sessions = sessions;
+        this.serverGUI = serverGUI;
+        this.autoApprove = AUTO_APPROVE.isEmpty() ? null : Pattern.compile(AUTO_APPROVE);
+    }
+
+    // Answer of join(): JOINED or REFUSED right away when a rule decides, NAME_TAKEN, or PENDING
+    public synchronized int submit(String name, ClientInterface client, long pushToken) {
+        if (sessions.contains(name) || pending.containsKey(name)) {
+            return ServerInterface.NAME_TAKEN;
+        }
+        if (MAX_CLIENTS > 0 && sessions.size() >= MAX_CLIENTS) {
+            System.out.println(name + " refused, the board is full");
+            return ServerInterface.REFUSED;
+        }
+        if (autoApprove != null && autoApprove.matcher(name).matches()) {
+            return server.admit(name, client, pushToken);
+        }
+        Request request = new Request(name, client, pushToken);
+        pending.put(name, request);
+        executor.schedule(() -> decide(request, false), TIMEOUT_SEC, TimeUnit.SECONDS);
+        changed();
+        return ServerInterface.PENDING;
+    }
+
+    // The manager's answer for the named requests, from any thread
+    public void decide(List<String> names, boolean approve) {
+        List<Request> requests = new ArrayList<>();
+        synchronized (this) {
+            for (String name : names) {
+                Request request = pending.get(name);
+                if (request != null) {
+                    requests.add(request);
+                }
+            }
+        }
+        for (Request request : requests) {
+            decide(request, approve);
+        }
+    }
+
+    private void decide(Request request, boolean approve) {
+        synchronized (this) {
+            if (request.answered) {
+                return; // Answered already, or timed out
+            }
+            request.answered = true;
+        }
+        executor.execute(() -> answer(request, approve));
+    }
+
+    // Runs on the admission thread
+    private void answer(Request request, boolean approve) {
+        int result = ServerInterface.REFUSED;
+        if (approve && MAX_CLIENTS > 0 && sessions.size() >= MAX_CLIENTS) {
+            System.out.println(request.name + " refused, the board is full");
+        } else if (approve) {
+            result = server.admit(request.name, request.client, request.pushToken);
+        }
+        synchronized (this) {
+            pending.remove(request.name, request); // The session holds the name from here on
+        }
+        changed();
+        int answer = result;
+        results.execute(() -> tell(request, answer));
+    }
+
+    // Runs on a join-result thread
+    private void tell(Request request, int result) {
+        try {
+            request.client.joinResult(result);
+        } catch (RemoteException e) {
+            System.out.println(request.name + " went away while waiting to join");
+            e.printStackTrace();
+            if (result == ServerInterface.JOINED) {
+                server.leave(request.client);
+            }
+        }
+    }
+
+    private void changed() {
+        List<String> names;
+        synchronized (this) {
+            names = new ArrayList<>(pending.keySet());
+        }
+        serverGUI.joinRequestsChanged(names);
+    }
+
+    public void close() {
+        executor.shutdownNow();
+        results.shutdownNow();
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+// Crash-safe autosave. A background thread appends every shape accepted since its last pass to a journal
+// file and fsyncs once per batch, so a crash loses at most the last batch window. Like a client sender it
+// pulls the shapes from the published board, drawing never waits for it. Every so often the board is
+// checkpointed into a binary snapshot and the journal before it is deleted.
+//
+// Files come in generations: checkpoint-<g>.wbs is the board when journal-<g>.log was started.
+// Recovery loads the newest checkpoint and replays its journal and any later ones.
+// A journal starts with one byte, 1 if the board was replaced (New/Open) rather than carried over.
+// Then each entry is: length | CRC32 | author flag and name | ShapeRecord. A torn tail fails the CRC and ends replay.
+public class BoardJournal {
+    private static final long BATCH_MS = Long.getLong("whiteboard.journalBatchMs", 50);
+    private static final int CHECKPOINT_OPS = Integer.getInteger("whiteboard.checkpointOps", 10000);
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_SUFFIX = ".log";
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final int MAX_ENTRY_SIZE = 1 << 20;
+
+    private final Path dir;
+    private Supplier<BoardState> board;
+    private boolean changed = false;
+    private boolean closed = false;
+    // Only used by the writer thread
+    private long generation;
+    private long epoch; // Base seq of the board the current journal belongs to
+    private int journaled; // Shapes of that board already in the journal or its checkpoint
+    private int sinceCheckpoint = 0;
+    private FileChannel journal;
+    private final Thread writer;
+    private final ExecutorService checkpointer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "journal-checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private BoardJournal(Path dir, long generation) {
+        this.dir = dir;
+        this.generation = generation;
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        this.writer.setDaemon(true);
+    }
+
+    // Open the journal in dir and rebuild the board it holds, empty when there is none
+    public static BoardJournal open(Path dir, BoardModel recovered) throws IOException {
+        Files.createDirectories(dir);
+        // Checkpoints that were still being written when the server stopped
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, CHECKPOINT_PREFIX + "*.tmp")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+        TreeSet<Long> journals = generations(dir, JOURNAL_PREFIX, JOURNAL_SUFFIX);
+        TreeSet<Long> checkpoints = generations(dir, CHECKPOINT_PREFIX, BoardSnapshot.EXTENSION);
+        long base = checkpoints.isEmpty() ? 0 : checkpoints.last();
+        if (base > 0) {
+            recovered.addAll(BoardSnapshot.read(checkpointFile(dir, base).toFile()));
+        }
+        for (long generation : journals.tailSet(base)) {
+            if (!replay(journalFile(dir, generation), recovered, generation == base)) {
+                // The board was replaced but its checkpoint never made it to disk, keep the board from before
+                System.err.println("Journal " + generation + " follows a lost checkpoint, not replayed");
+                break;
+            }
+        }
+        long last = Math.max(base, journals.isEmpty() ? 0 : journals.last());
+        return new BoardJournal(dir, last);
+    }
+
+    // Start journaling the board published by the server, recovered or not
+    public void start(Supplier<BoardState> board) {
+        this.board = board;
+        writer.start();
+    }
+
+    private static TreeSet<Long> generations(Path dir, String prefix, String suffix) throws IOException {
+        TreeSet<Long> generations = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return generations;
+    }
+
+    private static Path journalFile(Path dir, long generation) {
+        return dir.resolve(JOURNAL_PREFIX + generation + JOURNAL_SUFFIX);
+    }
+
+    private static Path checkpointFile(Path dir, long generation) {
+        return dir.resolve(CHECKPOINT_PREFIX + generation + BoardSnapshot.EXTENSION);
+    }
+
+    // Returns false, without replaying, for a replaced-board journal that is not the one the checkpoint was taken for
+    private static boolean replay(Path file, BoardModel board, boolean hasCheckpoint) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int replaced = in.read();
+            if (replaced == 1 && !hasCheckpoint) {
+                return false;
+            }
+            while (true) {
+                byte[] entry;
+                int crc;
+                try {
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_ENTRY_SIZE) {
+                        System.err.println("Journal " + file + " ends with a damaged entry, ignored");
+                        return true;
+                    }
+                    entry = new byte[length];
+                    crc = in.readInt();
+                    in.readFully(entry);
+                } catch (EOFException e) {
+                    return true; // End of the journal, or a write cut short by the crash
+                }
+                CRC32 check = new CRC32();
+                check.update(entry);
+                if ((int) check.getValue() != crc) {
+                    System.err.println("Journal " + file + " ends with a damaged entry, ignored");
+                    return true;
+                }
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(entry));
+                String author = fields.readBoolean() ? fields.readUTF() : null;
+                board.add(ShapeRecord.read(fields), author);
+            }
+        }
+    }
+
+    // The board was appended to or replaced, picked up by the next batch
+    public synchronized void changed() {
+        changed = true;
+        notifyAll();
+    }
+
+    // Write out what is pending and stop, used when the server shuts down
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join(5000);
+            checkpointer.shutdown();
+            checkpointer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            // Start a fresh generation, this also compacts what was just replayed
+            roll(board.get(), false);
+            while (true) {
+                boolean last;
+                synchronized (this) {
+                    while (!changed && !closed) {
+                        wait();
+                    }
+                    changed = false;
+                    last = closed;
+                }
+                BoardState current = board.get();
+                if (current.getBaseSeq() != epoch) {
+                    roll(current, true); // New or Open, the journal so far is for a board that is gone
+                } else {
+                    writeEntries(current, journaled, current.size());
+                    sinceCheckpoint += current.size() - journaled;
+                    journaled = current.size();
+                    if (sinceCheckpoint >= CHECKPOINT_OPS) {
+                        roll(current, false);
+                    }
+                }
+                if (last) {
+                    journal.close();
+                    return;
+                }
+                Thread.sleep(BATCH_MS); // Let the next batch build up, one fsync covers all of it
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Board journal stopped, drawing is no longer autosaved");
+            e.printStackTrace();
+        }
+    }
+
+    private void writeEntries(BoardState current, int from, int to) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((to - from) * 48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        ByteArrayOutputStream entryBytes = new ByteArrayOutputStream(48);
+        DataOutputStream entry = new DataOutputStream(entryBytes);
+        CRC32 crc = new CRC32();
+        for (int i = from; i < to; i++) {
+            entryBytes.reset();
+            String author = current.author(i);
+            entry.writeBoolean(author != null);
+            if (author != null) {
+                entry.writeUTF(author);
+            }
+            current.get(i).write(entry);
+            crc.reset();
+            crc.update(entryBytes.toByteArray());
+            out.writeInt(entryBytes.size());
+            out.writeInt((int) crc.getValue());
+            entryBytes.writeTo(out);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        journal.force(false);
+    }
+
+    // Close the current journal and start the next generation, its checkpoint is written in the background.
+    // The board versions are immutable, so the checkpoint thread can read this one while drawing goes on.
+    private void roll(BoardState current, boolean replaced) throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+        long next = ++generation;
+        journal = FileChannel.open(journalFile(dir, next), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.wrap(new byte[]{(byte) (replaced ? 1 : 0)});
+        while (header.hasRemaining()) {
+            journal.write(header);
+        }
+        journal.force(false);
+        epoch = current.getBaseSeq();
+        journaled = current.size();
+        sinceCheckpoint = 0;
+        checkpointer.execute(() -> writeCheckpoint(next, current));
+    }
+
+    private void writeCheckpoint(long generation, BoardView board) {
+        Path file = checkpointFile(dir, generation);
+        Path temp = dir.resolve(file.getFileName() + ".tmp");
+        try {
+            BoardSnapshot.write(board, temp.toFile());
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // Everything older is now covered by this checkpoint
+            for (long old : generations(dir, JOURNAL_PREFIX, JOURNAL_SUFFIX).headSet(generation)) {
+                Files.deleteIfExists(journalFile(dir, old));
+            }
+            for (long old : generations(dir, CHECKPOINT_PREFIX, BoardSnapshot.EXTENSION).headSet(generation)) {
+                Files.deleteIfExists(checkpointFile(dir, old));
+            }
+        } catch (IOException e) {
+            // The older checkpoint and journals are kept, recovery still works from them
+            e.printStackTrace();
+        }
+    }
+}
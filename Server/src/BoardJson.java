@@ -0,0 +1,399 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.DoubleConsumer;
+
+// Saves and opens the JSON board file one shape at a time instead of through a json-simple tree,
+// so a large board is never held a second time as JSON objects.
+// {"colors":[rgb, ...], "shapePositions":[{"x":..,"y":..}, ...], "shapes":[{"type":"line", ...}, ...]}
+// Colours and positions are written first so a reader has them by the time each shape arrives.
+// Older files list the shapes first, the three arrays are accepted in any order.
+public class BoardJson {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PROGRESS_STEP = 4096; // Shapes between progress reports
+
+    // Shapes from to to (exclusive) of the board being read have their colour and position now
+    public interface Listener {
+        void loaded(BoardModel board, int from, int to);
+    }
+
+    // progress is told the fraction written so far, from 0 to 1
+    public static void write(BoardView board, File file, DoubleConsumer progress) throws IOException {
+        double total = Math.max(1, board.size() * 3.0);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+             Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            out.write("{\"colors\":[");
+            for (int i = 0; i < board.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write(Integer.toString(board.rgb(i)));
+                if (i % PROGRESS_STEP == 0) {
+                    progress.accept(i / total);
+                }
+            }
+            out.write("],\"shapePositions\":[");
+            for (int i = 0; i < board.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write("{\"x\":" + board.x(i) + ",\"y\":" + board.y(i) + "}");
+                if (i % PROGRESS_STEP == 0) {
+                    progress.accept((board.size() + i) / total);
+                }
+            }
+            out.write("],\"shapes\":[");
+            for (int i = 0; i < board.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeShape(out, board, i);
+                if (i % PROGRESS_STEP == 0) {
+                    progress.accept((board.size() * 2.0 + i) / total);
+                }
+            }
+            out.write("]}");
+        }
+    }
+
+    private static void writeShape(Writer out, BoardView board, int i) throws IOException {
+        switch (board.type(i)) {
+            case ShapeRecord.LINE:
+                out.write("{\"type\":\"line\",\"x1\":" + board.coord(i, 0) + ",\"y1\":" + board.coord(i, 1)
+                        + ",\"x2\":" + board.coord(i, 2) + ",\"y2\":" + board.coord(i, 3) + "}");
+                break;
+            case ShapeRecord.ELLIPSE:
+                out.write("{\"type\":\"ellipse\",\"x\":" + board.coord(i, 0) + ",\"y\":" + board.coord(i, 1)
+                        + ",\"width\":" + board.coord(i, 2) + ",\"height\":" + board.coord(i, 3) + "}");
+                break;
+            case ShapeRecord.RECTANGLE:
+                out.write("{\"type\":\"rectangle\",\"x\":" + (int) board.coord(i, 0) + ",\"y\":" + (int) board.coord(i, 1)
+                        + ",\"width\":" + (int) board.coord(i, 2) + ",\"height\":" + (int) board.coord(i, 3) + "}");
+                break;
+            default:
+                out.write("{\"type\":\"text\",\"text\":");
+                writeString(out, board.text(i));
+                out.write(",\"x\":" + board.x(i) + ",\"y\":" + board.y(i) + "}");
+        }
+    }
+
+    private static void writeString(Writer out, String text) throws IOException {
+        out.write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    // The listener is called on the reading thread every chunkSize complete shapes, and once more at the end.
+    // progress is told the fraction of the file read so far.
+    public static BoardModel read(File file, Listener listener, int chunkSize, DoubleConsumer progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             Reader in = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            Parser parser = new Parser(in, listener, chunkSize, progress, channel.size());
+            parser.readBoard();
+            return parser.board;
+        }
+    }
+
+    private static class Parser {
+        private final Reader in;
+        private final Listener listener;
+        private final int chunkSize;
+        private final DoubleConsumer progress;
+        private final double length; // Of the file, offset counts characters so this is an estimate for non-ASCII text
+        private int elements = 0;
+        private final BoardModel board = new BoardModel();
+        private final StringBuilder token = new StringBuilder();
+        private int lookahead = -2; // -2 when nothing was peeked
+        private long offset = 0;
+        // Colours and positions read before their shape, indexed like the board
+        private int[] rgbs = new int[16];
+        private int colorCount = 0;
+        private int[] points = new int[32];
+        private int positionCount = 0;
+        private int reported = 0; // Shapes already passed to the listener
+
+        Parser(Reader in, Listener listener, int chunkSize, DoubleConsumer progress, long length) {
+            this.in = in;
+            this.listener = listener;
+            this.chunkSize = chunkSize;
+            this.progress = progress;
+            this.length = Math.max(1, length);
+        }
+
+        void readBoard() throws IOException {
+            expect('{');
+            if (peek() != '}') {
+                do {
+                    String key = readString();
+                    expect(':');
+                    if ("shapes".equals(key)) {
+                        readArray(this::readShape);
+                    } else if ("colors".equals(key)) {
+                        readArray(this::readColor);
+                    } else if ("shapePositions".equals(key)) {
+                        readArray(this::readPosition);
+                    } else {
+                        skipValue();
+                    }
+                } while (skip(','));
+            }
+            expect('}');
+            if (board.size() > reported) {
+                // Arrays missing from the file keep the defaults, the shapes are still passed on
+                listener.loaded(board, reported, board.size());
+                reported = board.size();
+            }
+        }
+
+        private interface Element {
+            void read() throws IOException;
+        }
+
+        private void readArray(Element element) throws IOException {
+            expect('[');
+            if (peek() != ']') {
+                do {
+                    element.read();
+                    report();
+                } while (skip(','));
+            }
+            expect(']');
+        }
+
+        private void report() {
+            if (++elements % PROGRESS_STEP == 0) {
+                progress.accept(Math.min(1, offset / length));
+            }
+            int complete = Math.min(board.size(), Math.min(colorCount, positionCount));
+            if (complete - reported >= chunkSize) {
+                listener.loaded(board, reported, complete);
+                reported = complete;
+            }
+        }
+
+        private void readColor() throws IOException {
+            int rgb = (int) (long) readNumber() | 0xff000000;
+            if (colorCount < board.size()) {
+                board.setRgb(colorCount, rgb);
+            } else {
+                if (colorCount == rgbs.length) {
+                    rgbs = Arrays.copyOf(rgbs, colorCount * 2);
+                }
+                rgbs[colorCount] = rgb;
+            }
+            colorCount++;
+        }
+
+        private void readPosition() throws IOException {
+            int x = 0, y = 0;
+            expect('{');
+            if (peek() != '}') {
+                do {
+                    String key = readString();
+                    expect(':');
+                    if ("x".equals(key)) {
+                        x = (int) readNumber();
+                    } else if ("y".equals(key)) {
+                        y = (int) readNumber();
+                    } else {
+                        skipValue();
+                    }
+                } while (skip(','));
+            }
+            expect('}');
+            if (positionCount < board.size()) {
+                if (board.type(positionCount) != ShapeRecord.TEXT) { // Text keeps its own baseline
+                    board.setPoint(positionCount, x, y);
+                }
+            } else {
+                if (positionCount * 2 == points.length) {
+                    points = Arrays.copyOf(points, positionCount * 4);
+                }
+                points[positionCount * 2] = x;
+                points[positionCount * 2 + 1] = y;
+            }
+            positionCount++;
+        }
+
+        private void readShape() throws IOException {
+            String type = null, text = null;
+            float x1 = 0, y1 = 0, x2 = 0, y2 = 0, x = 0, y = 0, width = 0, height = 0;
+            expect('{');
+            if (peek() != '}') {
+                do {
+                    String key = readString();
+                    expect(':');
+                    switch (key) {
+                        case "type": type = readString(); break;
+                        case "text": text = readString(); break;
+                        case "x1": x1 = (float) readNumber(); break;
+                        case "y1": y1 = (float) readNumber(); break;
+                        case "x2": x2 = (float) readNumber(); break;
+                        case "y2": y2 = (float) readNumber(); break;
+                        case "x": x = (float) readNumber(); break;
+                        case "y": y = (float) readNumber(); break;
+                        case "width": width = (float) readNumber(); break;
+                        case "height": height = (float) readNumber(); break;
+                        default: skipValue();
+                    }
+                } while (skip(','));
+            }
+            expect('}');
+
+            int i = board.size();
+            int rgb = i < colorCount ? rgbs[i] : 0xff000000;
+            int px = i < positionCount ? points[i * 2] : 0;
+            int py = i < positionCount ? points[i * 2 + 1] : 0;
+            if ("line".equals(type)) {
+                board.add(ShapeRecord.LINE, x1, y1, x2, y2, px, py, rgb, null, null);
+            } else if ("ellipse".equals(type)) {
+                board.add(ShapeRecord.ELLIPSE, x, y, width, height, px, py, rgb, null, null);
+            } else if ("rectangle".equals(type)) {
+                board.add(ShapeRecord.RECTANGLE, (int) x, (int) y, (int) width, (int) height, px, py, rgb, null, null);
+            } else if ("text".equals(type) && text != null) {
+                board.add(ShapeRecord.TEXT, 0, 0, 0, 0, (int) x, (int) y, rgb, text, null);
+            } else {
+                throw error("unknown shape type " + type);
+            }
+        }
+
+        private void skipValue() throws IOException {
+            int c = peek();
+            if (c == '"') {
+                readString();
+            } else if (c == '{') {
+                expect('{');
+                if (peek() != '}') {
+                    do {
+                        readString();
+                        expect(':');
+                        skipValue();
+                    } while (skip(','));
+                }
+                expect('}');
+            } else if (c == '[') {
+                readArray(this::skipValue);
+            } else if (c == 't' || c == 'f' || c == 'n') {
+                token.setLength(0);
+                while (Character.isLetter(peek())) {
+                    token.append((char) next());
+                }
+            } else {
+                readNumber();
+            }
+        }
+
+        private String readString() throws IOException {
+            expect('"');
+            token.setLength(0);
+            while (true) {
+                int c = nextRaw();
+                if (c == '"') {
+                    return token.toString();
+                } else if (c == '\\') {
+                    int escaped = nextRaw();
+                    switch (escaped) {
+                        case 'b': token.append('\b'); break;
+                        case 'f': token.append('\f'); break;
+                        case 'n': token.append('\n'); break;
+                        case 'r': token.append('\r'); break;
+                        case 't': token.append('\t'); break;
+                        case 'u':
+                            int code = 0;
+                            for (int k = 0; k < 4; k++) {
+                                int digit = Character.digit(nextRaw(), 16);
+                                if (digit < 0) {
+                                    throw error("bad unicode escape");
+                                }
+                                code = code * 16 + digit;
+                            }
+                            token.append((char) code);
+                            break;
+                        default: token.append((char) escaped); // \" \\ \/
+                    }
+                } else if (c < 0) {
+                    throw error("unterminated string");
+                } else {
+                    token.append((char) c);
+                }
+            }
+        }
+
+        private double readNumber() throws IOException {
+            token.setLength(0);
+            int c = peek();
+            while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+                token.append((char) next());
+                c = peekRaw();
+            }
+            try {
+                return Double.parseDouble(token.toString());
+            } catch (NumberFormatException e) {
+                throw error("bad number '" + token + "'");
+            }
+        }
+
+        // Consume c if it is the next token
+        private boolean skip(char c) throws IOException {
+            if (peek() == c) {
+                next();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) throws IOException {
+            if (peek() != c) {
+                throw error("expected '" + c + "'");
+            }
+            next();
+        }
+
+        // Next character that is not white space, not consumed
+        private int peek() throws IOException {
+            int c = peekRaw();
+            while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                nextRaw();
+                c = peekRaw();
+            }
+            return c;
+        }
+
+        private int peekRaw() throws IOException {
+            if (lookahead == -2) {
+                lookahead = in.read();
+            }
+            return lookahead;
+        }
+
+        private int next() throws IOException {
+            peek();
+            return nextRaw();
+        }
+
+        private int nextRaw() throws IOException {
+            int c = peekRaw();
+            lookahead = -2;
+            offset++;
+            return c;
+        }
+
+        private IOException error(String message) {
+            return new IOException("Malformed board file at character " + offset + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Binary board file (.wbs), loaded by mapping it and copying the records straight into a BoardModel.
+// Header: magic, version, record size, shape count, string table offset.
+// Then one fixed-width record per shape:
+//   type (1) | a, b, c, d (4 floats) | x, y | rgb | text index | author index   (37 bytes)
+// and a string table (count, then length-prefixed UTF-8) holding the texts and author names.
+// An index of -1 means no string. All numbers are big-endian.
+public class BoardSnapshot {
+    public static final String EXTENSION = ".wbs";
+    private static final int MAGIC = 0x57425331; // "WBS1"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 2 + 4 + 8;
+    private static final int RECORD_SIZE = 1 + 4 * 4 + 4 + 4 + 4 + 4 + 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static boolean isSnapshot(File file) {
+        return file.getName().toLowerCase().endsWith(EXTENSION);
+    }
+
+    public static void write(BoardView board, File file) throws IOException {
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> authorIndex = new HashMap<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.putShort((short) RECORD_SIZE);
+            buffer.putInt(board.size());
+            buffer.putLong(HEADER_SIZE + (long) board.size() * RECORD_SIZE);
+            for (int i = 0; i < board.size(); i++) {
+                if (buffer.remaining() < RECORD_SIZE) {
+                    flush(channel, buffer);
+                }
+                buffer.put(board.type(i));
+                for (int k = 0; k < 4; k++) {
+                    buffer.putFloat(board.coord(i, k));
+                }
+                buffer.putInt(board.x(i));
+                buffer.putInt(board.y(i));
+                buffer.putInt(board.rgb(i));
+                if (board.text(i) == null) {
+                    buffer.putInt(-1);
+                } else {
+                    buffer.putInt(strings.size());
+                    strings.add(board.text(i));
+                }
+                // Author names repeat, each is stored once
+                String author = board.author(i);
+                if (author == null) {
+                    buffer.putInt(-1);
+                } else {
+                    Integer index = authorIndex.get(author);
+                    if (index == null) {
+                        index = strings.size();
+                        authorIndex.put(author, index);
+                        strings.add(author);
+                    }
+                    buffer.putInt(index);
+                }
+            }
+
+            if (buffer.remaining() < 4) {
+                flush(channel, buffer);
+            }
+            buffer.putInt(strings.size());
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < 4) {
+                    flush(channel, buffer);
+                }
+                buffer.putInt(bytes.length);
+                int written = 0;
+                while (written < bytes.length) {
+                    if (!buffer.hasRemaining()) {
+                        flush(channel, buffer);
+                    }
+                    int length = Math.min(buffer.remaining(), bytes.length - written);
+                    buffer.put(bytes, written, length);
+                    written += length;
+                }
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public static BoardModel read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Board snapshot larger than 2GB: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a board snapshot: " + file);
+            }
+            short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported board snapshot version " + version + ": " + file);
+            }
+            int recordSize = buffer.getShort();
+            int count = buffer.getInt();
+            long stringTableOffset = buffer.getLong();
+            if (recordSize < RECORD_SIZE || count < 0
+                    || stringTableOffset != HEADER_SIZE + (long) count * recordSize
+                    || stringTableOffset + 4 > buffer.limit()) {
+                throw new IOException("Corrupt board snapshot header: " + file);
+            }
+
+            // Strings first, records refer to them by index
+            buffer.position((int) stringTableOffset);
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            BoardModel board = new BoardModel(count);
+            buffer.position(HEADER_SIZE);
+            for (int i = 0; i < count; i++) {
+                int start = buffer.position();
+                byte type = buffer.get();
+                float a = buffer.getFloat();
+                float b = buffer.getFloat();
+                float c = buffer.getFloat();
+                float d = buffer.getFloat();
+                int x = buffer.getInt();
+                int y = buffer.getInt();
+                int rgb = buffer.getInt();
+                int text = buffer.getInt();
+                int author = buffer.getInt();
+                board.add(type, a, b, c, d, x, y, rgb, text < 0 ? null : strings[text], author < 0 ? null : strings[author]);
+                buffer.position(start + recordSize); // Later versions may append fields to a record
+            }
+            return board;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Truncated board snapshot: " + file, e);
+        }
+    }
+
+    // Convert between the JSON and binary formats, by file extension:
+    // java BoardSnapshot board.json board.wbs   or   java BoardSnapshot board.wbs board.json
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: java BoardSnapshot <input.json|input.wbs> <output.json|output.wbs>");
+            System.exit(1);
+        }
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+        try {
+            long start = System.currentTimeMillis();
+            BoardModel board = isSnapshot(input) ? read(input) : BoardJson.read(input, (b, from, to) -> {}, Integer.MAX_VALUE, fraction -> {});
+            long loaded = System.currentTimeMillis();
+            if (isSnapshot(output)) {
+                write(board, output);
+            } else {
+                BoardJson.write(board, output, fraction -> {});
+            }
+            System.out.println("Converted " + board.size() + " shapes, read in " + (loaded - start)
+                    + "ms, written in " + (System.currentTimeMillis() - loaded) + "ms");
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
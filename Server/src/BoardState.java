@@ -0,0 +1,203 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One immutable version of the server board, published through an AtomicReference so readers never lock.
+// Shapes live in chunks of CHUNK_SIZE. Full chunks are never changed and are shared by every later version.
+// The partly filled tail chunk is shared as well: a version only reads its first tailSize shapes, and an
+// append writes the slot after them, so it copies nothing whatever the size of the board.
+// Shape i is the op numbered baseSeq + 1 + i.
+public final class BoardState implements BoardView {
+    private static final int CHUNK_BITS = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    // Full chunks. The array is shared between versions, a version only reads below its own chunkCount.
+    // A shared slot is only ever written with the full tail of a published version, the one chunk that
+    // belongs there, so writers racing from the same version store the same thing.
+    private final BoardModel[] chunks;
+    private final int chunkCount;
+    private final Tail tail; // Moved to chunks by the append after it fills up
+    private final int tailSize; // Shapes of the tail in this version, later versions may have more
+    private final int size;
+    private final long baseSeq; // Number taken by the clear/open this board started from
+    // Spatial index shared by every version since that clear/open, filled in after a version is published
+    private final Index index;
+
+    private static class Tail {
+        final BoardModel shapes = new BoardModel(CHUNK_SIZE);
+        // Slots handed out to writers. A writer takes the slot after the shapes of its version before filling
+        // it, so writers racing from the same version never write the same slot, the others start over.
+        final AtomicInteger claimed = new AtomicInteger();
+    }
+
+    private static class Index {
+        final ShapeGrid grid = new ShapeGrid();
+        int count = 0; // Shapes 0 to count (exclusive) are in the grid, guarded by grid
+    }
+
+    private BoardState(BoardModel[] chunks, int chunkCount, Tail tail, int tailSize, long baseSeq, Index index) {
+        this.chunks = chunks;
+        this.chunkCount = chunkCount;
+        this.tail = tail;
+        this.tailSize = tailSize;
+        this.size = chunkCount * CHUNK_SIZE + tailSize;
+        this.baseSeq = baseSeq;
+        this.index = index;
+    }
+
+    // A fresh board holding a copy of the given shapes
+    public static BoardState of(BoardView board, long baseSeq) {
+        BoardState state = new BoardState(new BoardModel[16], 0, new Tail(), 0, baseSeq, new Index())
+                .appendAll(board, 0, board.size());
+        state.index();
+        return state;
+    }
+
+    // Null if another writer appended to this version first, the caller starts over from the current board.
+    // A slot taken by a writer whose version then loses the compare-and-set is never read by anyone: the board
+    // moved on without it, and every version sharing the tail has fewer shapes.
+    public BoardState append(ShapeRecord shape, String author) {
+        if (tailSize < CHUNK_SIZE) {
+            if (!tail.claimed.compareAndSet(tailSize, tailSize + 1)) {
+                return null;
+            }
+            tail.shapes.add(shape, author);
+            return new BoardState(chunks, chunkCount, tail, tailSize + 1, baseSeq, index);
+        }
+        BoardModel[] nextChunks = chunks;
+        if (chunkCount == nextChunks.length) {
+            nextChunks = Arrays.copyOf(nextChunks, chunkCount * 2);
+        }
+        nextChunks[chunkCount] = tail.shapes;
+        Tail next = new Tail();
+        next.claimed.set(1);
+        next.shapes.add(shape, author);
+        return new BoardState(nextChunks, chunkCount + 1, next, 1, baseSeq, index);
+    }
+
+    // Shapes from to to (exclusive) of another board, added as one new version.
+    // New chunks are made here, so they go into a private copy of the chunk array.
+    public BoardState appendAll(BoardView shapes, int from, int to) {
+        int total = size + (to - from);
+        BoardModel[] nextChunks = Arrays.copyOf(chunks, Math.max(16, total / CHUNK_SIZE + 1));
+        int nextCount = chunkCount;
+        Tail next = new Tail();
+        next.shapes.addRange(tail.shapes, 0, tailSize);
+        for (int i = from; i < to; i++) {
+            if (next.shapes.size() == CHUNK_SIZE) {
+                nextChunks[nextCount++] = next.shapes;
+                next = new Tail();
+            }
+            next.shapes.add(shapes, i);
+        }
+        next.claimed.set(next.shapes.size());
+        return new BoardState(nextChunks, nextCount, next, next.shapes.size(), baseSeq, index);
+    }
+
+    // Add the shapes of this version to the spatial index, after it was published. Everything before them
+    // that is not indexed yet goes in as well: writers racing each other may call this out of order, whoever
+    // comes first indexes the shapes of both.
+    public void index() {
+        synchronized (index.grid) {
+            indexTo(size);
+        }
+    }
+
+    private void indexTo(int to) {
+        for (int i = index.count; i < to; i++) {
+            index.grid.add(i, bounds(i));
+        }
+        index.count = Math.max(index.count, to);
+    }
+
+    // Shapes that intersect an area of the board, in drawing order
+    public ArrayList<BoardOp> shapesIn(Rectangle area) {
+        int[] indices;
+        synchronized (index.grid) {
+            indexTo(size); // Not indexed yet by the writer that published them
+            indices = index.grid.query(area);
+        }
+        ArrayList<BoardOp> found = new ArrayList<>();
+        for (int i : indices) {
+            if (i < size && bounds(i).intersects(area)) {
+                found.add(op(i));
+            }
+        }
+        return found;
+    }
+
+    public long getBaseSeq() {
+        return baseSeq;
+    }
+
+    // Number of the latest op
+    public long getLastSeq() {
+        return baseSeq + size;
+    }
+
+    public BoardOp op(int i) {
+        return new BoardOp(baseSeq + 1 + i, author(i), get(i));
+    }
+
+    public ArrayList<BoardOp> opsRange(int from, int to) {
+        return opsRange(from, to, null);
+    }
+
+    // Only the ops whose shape intersects area, all of them if area is null
+    public ArrayList<BoardOp> opsRange(int from, int to, Rectangle area) {
+        ArrayList<BoardOp> ops = new ArrayList<>(area == null ? to - from : 16);
+        for (int i = from; i < to; i++) {
+            if (area == null || bounds(i).intersects(area)) {
+                ops.add(op(i));
+            }
+        }
+        return ops;
+    }
+
+    private BoardModel chunk(int i) {
+        int c = i >>> CHUNK_BITS;
+        return c < chunkCount ? chunks[c] : tail.shapes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte type(int i) {
+        return chunk(i).type(i & (CHUNK_SIZE - 1));
+    }
+
+    public float coord(int i, int k) {
+        return chunk(i).coord(i & (CHUNK_SIZE - 1), k);
+    }
+
+    public int x(int i) {
+        return chunk(i).x(i & (CHUNK_SIZE - 1));
+    }
+
+    public int y(int i) {
+        return chunk(i).y(i & (CHUNK_SIZE - 1));
+    }
+
+    public int rgb(int i) {
+        return chunk(i).rgb(i & (CHUNK_SIZE - 1));
+    }
+
+    public String text(int i) {
+        return chunk(i).text(i & (CHUNK_SIZE - 1));
+    }
+
+    public String author(int i) {
+        return chunk(i).author(i & (CHUNK_SIZE - 1));
+    }
+
+    public ShapeRecord get(int i) {
+        return chunk(i).get(i & (CHUNK_SIZE - 1));
+    }
+
+    public Rectangle bounds(int i) {
+        return chunk(i).bounds(i & (CHUNK_SIZE - 1));
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.*;
+import java.util.ArrayList;
+
+// Answer of syncBoard(): the ops a client missed, or the whole board when it has to start over
+public class BoardSync implements Externalizable {
+    private static final long serialVersionUID = 2L;
+    // Smallest op on the wire: seq, no author, a text shape with an empty text. No frame holds more ops than
+    // fit in PushFrame.MAX_SIZE at this size.
+    private static final int MIN_OP_SIZE = 8 + 1 + 1 + 2 + 12;
+
+    private boolean reset; // Board was cleared or opened since the client's op, drop the local board first
+    private long lastSeq; // Latest op on the server when this sync was taken
+    private ArrayList<BoardOp> ops;
+
+    public BoardSync() {
+        // Needed by Externalizable
+    }
+
+    public BoardSync(boolean reset, long lastSeq, ArrayList<BoardOp> ops) {
+        this.reset = reset;
+        this.lastSeq = lastSeq;
+        this.ops = ops;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    public ArrayList<BoardOp> getOps() {
+        return ops;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeBoolean(reset);
+        out.writeLong(lastSeq);
+        out.writeInt(ops.size());
+        for (BoardOp op : ops) {
+            op.write(out);
+        }
+    }
+
+    public static BoardSync read(DataInput in) throws IOException {
+        BoardSync sync = new BoardSync();
+        sync.readFields(in);
+        return sync;
+    }
+
+    private void readFields(DataInput in) throws IOException {
+        reset = in.readBoolean();
+        lastSeq = in.readLong();
+        int size = in.readInt();
+        if (size < 0 || size > PushFrame.MAX_SIZE / MIN_OP_SIZE) {
+            throw new IOException("Bad op count " + size);
+        }
+        ops = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ops.add(BoardOp.read(in));
+        }
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        write(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFields(in);
+    }
+}
@@ -0,0 +1,109 @@
+import java.awt.*;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// Operations a client sends in one submitBatch() call, applied by the server in this order.
+// A client on a slow link collects everything of one frame here and pays a single round trip for it.
+public class ClientBatch implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    public static final byte SHAPE = 1; // Finished shape, gets an op number
+    public static final byte PREVIEW = 2; // Unfinished drawing, null when the user stopped drawing
+    public static final byte CLIENT_LIST = 3; // Share the list of online users with everyone, e.g. after joining
+    public static final byte VIEWPORT = 4; // Area of the board the client shows, see viewport()
+    // Far more operations than a user makes between two batches, a bigger count is a broken or hostile peer
+    private static final int MAX_SIZE = 1 << 16;
+
+    private List<Byte> kinds = new ArrayList<>();
+    private List<ShapeRecord> records = new ArrayList<>();
+    private Rectangle viewport; // Latest viewport in this batch
+
+    public void addShape(ShapeRecord shape) {
+        kinds.add(SHAPE);
+        records.add(shape);
+    }
+
+    public void addPreview(ShapeRecord curDrawing) {
+        kinds.add(PREVIEW);
+        records.add(curDrawing);
+    }
+
+    public void syncClientList() {
+        kinds.add(CLIENT_LIST);
+        records.add(null);
+    }
+
+    // Only ops in this area of the board are sent to the client from now on
+    public void setViewport(Rectangle viewport) {
+        kinds.add(VIEWPORT);
+        records.add(null);
+        this.viewport = new Rectangle(viewport);
+    }
+
+    public Rectangle viewport() {
+        return viewport;
+    }
+
+    public int size() {
+        return kinds.size();
+    }
+
+    public boolean isEmpty() {
+        return kinds.isEmpty();
+    }
+
+    public byte kind(int i) {
+        return kinds.get(i);
+    }
+
+    public ShapeRecord record(int i) {
+        return records.get(i);
+    }
+
+    // Number of SHAPE entries, one op number is returned for each
+    public int shapeCount() {
+        int count = 0;
+        for (byte kind : kinds) {
+            if (kind == SHAPE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(kinds.size());
+        for (int i = 0; i < kinds.size(); i++) {
+            out.writeByte(kinds.get(i));
+            ShapeRecord record = records.get(i);
+            out.writeBoolean(record != null);
+            if (record != null) {
+                record.write(out);
+            }
+        }
+        out.writeBoolean(viewport != null);
+        if (viewport != null) {
+            out.writeInt(viewport.x);
+            out.writeInt(viewport.y);
+            out.writeInt(viewport.width);
+            out.writeInt(viewport.height);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0 || size > MAX_SIZE) {
+            throw new IOException("Bad batch size " + size);
+        }
+        kinds = new ArrayList<>(size);
+        records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            kinds.add(in.readByte());
+            records.add(in.readBoolean() ? ShapeRecord.read(in) : null);
+        }
+        viewport = in.readBoolean() ? new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt()) : null;
+    }
+}
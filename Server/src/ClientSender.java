@@ -0,0 +1,339 @@
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Outbound queue of one connected client, drained by its own thread over RMI callbacks, or by the push
+// encoders when the client has a push connection. Either way the queued updates go out batched, as frames.
+// A slow or blocked client only delays its own updates, not the whole board.
+// A client that set a viewport only gets the shapes and previews in it, see setViewport().
+public class ClientSender {
+    // What to do when a client falls so far behind that its queue is full
+    public enum OverflowPolicy {
+        COALESCE, // Keep only the latest preview and client list
+        DROP_PARTIALS, // Drop previews, keep everything else
+        DISCONNECT // Give up on the client
+    }
+
+    private static final int CAPACITY = Integer.getInteger("whiteboard.sendQueueCapacity", 256);
+    private static final int MAX_BATCH_BYTES = 256 * 1024; // More waits for the next callback or write
+    private static final OverflowPolicy POLICY =
+            OverflowPolicy.valueOf(System.getProperty("whiteboard.overflowPolicy", "COALESCE"));
+
+    private enum Kind { BOARD, RESET, VIEW, PARTIAL, CLIENT_LIST, KICKED }
+
+    private static class Update {
+        final Kind kind;
+        String author;
+        ShapeRecord curDrawing;
+        List<String> clientList;
+
+        Update(Kind kind) {
+            this.kind = kind;
+        }
+    }
+
+    private final ServerRemoteObj server;
+    private final ClientInterface client;
+    private final String clientName;
+    private final ArrayDeque<Update> queue = new ArrayDeque<>();
+    // Shapes are not queued one by one, a single BOARD update sends every op after sentSeq
+    private boolean boardQueued = false;
+    private boolean viewQueued = false;
+    private Rectangle viewport; // Board area the client shows, null for all of it
+    // Previews still in the queue by author, a newer preview overwrites the queued one
+    private final Map<String, Update> queuedPartials = new HashMap<>();
+    private long sentSeq; // Ops up to here were sent, or left out because they were outside the viewport
+    // Only used by the thread draining the queue
+    private long clientSeq; // Latest op number the client was told about
+    private final Set<String> visiblePreviews = new HashSet<>(); // Authors whose preview the client shows
+    private boolean closed = false;
+    private volatile int failures = 0; // Callbacks failed in a row, the server evicts the client after a few
+    private volatile byte compression = PayloadCodec.NONE; // Agreed with the client, see PayloadCodec
+    // Push connection the updates are written to, null when they are sent as RMI callbacks
+    private final PushServer.Connection push;
+
+    public ClientSender(ServerRemoteObj server, ClientInterface client, String clientName, long sentSeq,
+                        PushServer.Connection push) {
+        this.server = server;
+        this.client = client;
+        this.clientName = clientName;
+        this.sentSeq = sentSeq;
+        this.clientSeq = sentSeq;
+        this.push = push;
+        if (push == null) {
+            Thread thread = new Thread(this::run, "sender-" + clientName);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public ClientInterface getClient() {
+        return client;
+    }
+
+    public String getClientName() {
+        return clientName;
+    }
+
+    public void setCompression(byte compression) {
+        this.compression = compression;
+    }
+
+    // New ops are in the server log, in the area changed (null if not known)
+    public synchronized void sendBoard(Rectangle changed) {
+        if (viewport != null && changed != null && !changed.intersects(viewport)) {
+            return; // Not shown by the client, picked up by the next update it does get
+        }
+        if (!boardQueued) {
+            boardQueued = offer(new Update(Kind.BOARD));
+        }
+    }
+
+    // Board was cleared or opened, the client is told and then gets the new board
+    public synchronized void sendReset() {
+        offer(new Update(Kind.RESET));
+        boardQueued = false; // The reset sends the board itself
+    }
+
+    // From now on only send what intersects area. The client gets everything in it once, in place of what
+    // it had, then only the ops in it.
+    public synchronized void setViewport(Rectangle area) {
+        viewport = new Rectangle(area);
+        if (!viewQueued) {
+            viewQueued = offer(new Update(Kind.VIEW));
+        }
+    }
+
+    private synchronized Rectangle viewport() {
+        return viewport;
+    }
+
+    public synchronized void sendPartial(String author, ShapeRecord curDrawing) {
+        Update update = queuedPartials.get(author);
+        if (update == null) {
+            update = new Update(Kind.PARTIAL);
+            update.author = author;
+            if (!offer(update)) {
+                return;
+            }
+            queuedPartials.put(author, update);
+        }
+        update.curDrawing = curDrawing;
+    }
+
+    public synchronized void sendClientList(List<String> clientList) {
+        Update update = new Update(Kind.CLIENT_LIST);
+        update.clientList = clientList; // A snapshot nobody changes, shared with the other senders
+        offer(update);
+    }
+
+    // Last message to the client, the sender stops after it
+    public synchronized void sendKicked() {
+        offer(new Update(Kind.KICKED));
+    }
+
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+        queuedPartials.clear();
+        notifyAll();
+        if (push != null) {
+            push.wakeup(); // Lets the selector close the connection
+        }
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized boolean hasUpdates() {
+        return !closed && !queue.isEmpty();
+    }
+
+    private boolean offer(Update update) {
+        if (closed) {
+            return false;
+        }
+        if (queue.size() >= CAPACITY && !makeRoom(update)) {
+            return false;
+        }
+        queue.add(update);
+        notifyAll();
+        if (push != null) {
+            push.wakeup();
+        }
+        return true;
+    }
+
+    // Queue is full, apply the overflow policy. Returns whether the update can still be queued.
+    private boolean makeRoom(Update update) {
+        switch (POLICY) {
+            case COALESCE:
+                // Previews and client lists are superseded by later ones, drop the queued ones
+                removeQueued(Kind.PARTIAL);
+                removeQueued(Kind.CLIENT_LIST);
+                return queue.size() < CAPACITY;
+            case DROP_PARTIALS:
+                removeQueued(Kind.PARTIAL);
+                return update.kind != Kind.PARTIAL && queue.size() < CAPACITY;
+            case DISCONNECT:
+            default:
+                System.out.println(clientName + " is too slow, disconnecting");
+                close();
+                server.leaveLater(client); // Not under this sender's lock
+                return false;
+        }
+    }
+
+    private void removeQueued(Kind kind) {
+        Iterator<Update> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().kind == kind) {
+                iterator.remove();
+            }
+        }
+        if (kind == Kind.PARTIAL) {
+            queuedPartials.clear();
+        }
+    }
+
+    private synchronized boolean awaitUpdates() throws InterruptedException {
+        while (queue.isEmpty() && !closed) {
+            wait();
+        }
+        return !closed;
+    }
+
+    // Next update, null if there is none or the sender is closed
+    private synchronized Update poll() {
+        if (closed || queue.isEmpty()) {
+            return null;
+        }
+        Update update = queue.poll();
+        if (update.kind == Kind.BOARD) {
+            boardQueued = false;
+        } else if (update.kind == Kind.VIEW) {
+            viewQueued = false;
+        } else if (update.kind == Kind.PARTIAL) {
+            queuedPartials.remove(update.author); // Newer previews queue a new update from now on
+        }
+        return update;
+    }
+
+    // RMI transport: everything queued while the last callback was running goes out in the next one
+    private void run() {
+        try {
+            while (awaitUpdates()) {
+                ByteBuffer frames = nextFrames();
+                if (frames == null) {
+                    continue;
+                }
+                try {
+                    client.applyUpdates(Arrays.copyOf(frames.array(), frames.limit()));
+                    failures = 0;
+                } catch (RemoteException e) {
+                    if (failures++ == 0) { // Only the first one, the client is probably gone
+                        System.out.println("Error on sending update to " + clientName);
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Frames for the updates queued now, up to MAX_BATCH_BYTES, null when there is nothing to send.
+    // Only called by the sender thread, or for a push client by one push encoder thread at a time, which owns
+    // sentSeq.
+    public ByteBuffer nextFrames() {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        Update update;
+        while (frames.size() < MAX_BATCH_BYTES && (update = poll()) != null) {
+            encode(update, frames);
+            if (update.kind == Kind.KICKED) {
+                close(); // Nothing more is sent after it
+            }
+        }
+        return frames.size() == 0 ? null : ByteBuffer.wrap(PayloadCodec.compress(frames.toByteArray(), compression));
+    }
+
+    private void encode(Update update, ByteArrayOutputStream frames) {
+        switch (update.kind) {
+            case RESET:
+                frames.writeBytes(PushFrame.signal(PushFrame.CLEAR));
+                encodeOps(true, frames);
+                break;
+            case VIEW:
+                encodeOps(true, frames);
+                break;
+            case BOARD:
+                encodeOps(false, frames);
+                break;
+            case PARTIAL:
+                encodePreview(update.author, update.curDrawing, frames);
+                break;
+            case CLIENT_LIST:
+                frames.writeBytes(PushFrame.clientList(update.clientList));
+                break;
+            case KICKED:
+                frames.writeBytes(PushFrame.signal(PushFrame.KICKED));
+                break;
+        }
+    }
+
+    // Every op the client has not got yet, a single op gets the smaller OP frame.
+    // After a reset the whole board is sent, even if a BOARD update already got past the reset.
+    // With a viewport only the ops in it are sent, a reset then takes them from the spatial index.
+    private void encodeOps(boolean reset, ByteArrayOutputStream frames) {
+        Rectangle area = viewport();
+        BoardSync sync;
+        if (reset && area != null) {
+            sync = server.viewSync(area);
+        } else {
+            sync = server.syncBoard(reset ? -1 : sentSeq, Integer.MAX_VALUE, area);
+        }
+        sentSeq = sync.getLastSeq();
+        List<BoardOp> ops = sync.getOps();
+        if (!reset && ops.size() == 1 && ops.get(0).getSeq() == clientSeq + 1 && sync.getLastSeq() == clientSeq + 1) {
+            frames.writeBytes(PushFrame.op(ops.get(0))); // Nothing was left out before it
+        } else if (reset || sync.getLastSeq() != clientSeq) {
+            // Also tells the client how far it is now, even with every op outside the viewport. The next op
+            // can then go as an OP frame and the client's own shapes drawn out of view are confirmed.
+            frames.writeBytes(PushFrame.sync(sync));
+        } else {
+            return; // Nothing new
+        }
+        clientSeq = sync.getLastSeq();
+    }
+
+    // Previews outside the viewport are not sent, apart from removing one the client still shows
+    private void encodePreview(String author, ShapeRecord curDrawing, ByteArrayOutputStream frames) {
+        Rectangle area = viewport();
+        Object drawing = curDrawing == null ? null : curDrawing.toShape();
+        if (area == null || !(drawing instanceof Shape)
+                || PartialPreviews.bounds((Shape) drawing).intersects(area)) {
+            if (drawing == null) {
+                visiblePreviews.remove(author);
+            } else {
+                visiblePreviews.add(author);
+            }
+            frames.writeBytes(PushFrame.partial(author, curDrawing));
+        } else if (visiblePreviews.remove(author)) {
+            frames.writeBytes(PushFrame.partial(author, null)); // Moved out of view, the client drops it
+        }
+    }
+}
@@ -0,0 +1,42 @@
+import java.util.List;
+
+// Stands in for the manager's window when the server runs without a display (LoadGenerator, benchmarks).
+// Every call the server makes to its GUI does nothing.
+public class HeadlessServerGUI extends ServerGUI {
+    public HeadlessServerGUI() {
+        super(true);
+    }
+
+    @Override
+    public void addClient(String clientName) {
+    }
+
+    @Override
+    public void removeClient(String clientName) {
+    }
+
+    @Override
+    public void joinRequestsChanged(List<String> names) {
+    }
+
+    @Override
+    public void boardChanged() {
+        // The manager's board is not kept, it would only take CPU from the server
+    }
+
+    @Override
+    public void updatePartialDraw(String author, ShapeRecord curDrawing) {
+    }
+
+    @Override
+    public void showFileProgress(String task, double fraction) {
+    }
+
+    @Override
+    public void fileDone(String message) {
+    }
+
+    @Override
+    public void clear() {
+    }
+}
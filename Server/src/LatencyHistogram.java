@@ -0,0 +1,66 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histogram many threads record into without locking. Buckets double in size and each is split
+// in 16, so a percentile is within about 6% of the real value without keeping every sample.
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 16;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucket(value));
+        total.increment();
+        max.accumulate(value);
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    // Value at or below which the fraction p of the samples fall, 0 without samples
+    public long percentile(double p) {
+        long samples = total.sum();
+        if (samples == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(p * samples);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(lowest(i + 1) - 1, max.get()); // Top of the bucket
+            }
+        }
+        return max.get();
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // At least 4 here
+        int sub = (int) (value >>> (exponent - 4)) & (SUB_BUCKETS - 1);
+        return (exponent - 3) * SUB_BUCKETS + sub;
+    }
+
+    // Smallest value that lands in the bucket
+    private static long lowest(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 3;
+        if (exponent > 63) {
+            return Long.MAX_VALUE;
+        }
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 4);
+    }
+}
@@ -0,0 +1,149 @@
+import java.rmi.RemoteException;
+import java.rmi.server.RemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Drives an in-process server with simulated users (see SimulatedClient) over loopback RMI, without any
+// window, and reports throughput, fan-out latency and errors. Run with the server classes on the classpath:
+//   java -Dwhiteboard.load.users=200 LoadGenerator
+// Settings, as -Dwhiteboard.load.<name>:
+//   users (200)           virtual users, they join spread over rampSec (10)
+//   opsPerSec (5)         actions of each user per second
+//   mix (draw=30,preview=68,rejoin=2)   relative weights of the actions
+//   durationSec (60)      length of the run, a report line is printed every reportSec (5)
+// Every other whiteboard.* setting applies to the server as usual. Joins are approved automatically and the
+// journal is off unless set otherwise.
+public class LoadGenerator {
+    private static final int USERS = Integer.getInteger("whiteboard.load.users", 200);
+    private static final int RAMP_SEC = Integer.getInteger("whiteboard.load.rampSec", 10);
+    private static final double OPS_PER_SEC =
+            Double.parseDouble(System.getProperty("whiteboard.load.opsPerSec", "5"));
+    private static final String MIX = System.getProperty("whiteboard.load.mix", "draw=30,preview=68,rejoin=2");
+    private static final int DURATION_SEC = Integer.getInteger("whiteboard.load.durationSec", 60);
+    private static final int REPORT_SEC = Integer.getInteger("whiteboard.load.reportSec", 5);
+    private static final long HEARTBEAT_MS = Long.getLong("whiteboard.heartbeatMs", 5000);
+
+    // Shared by every simulated user
+    final LongAdder draws = new LongAdder();
+    final LongAdder previews = new LongAdder();
+    final LongAdder rejoins = new LongAdder();
+    final LongAdder delivered = new LongAdder(); // Ops and previews received by all users together
+    final LongAdder errors = new LongAdder(); // Failed remote calls and unreadable updates
+    final LongAdder refused = new LongAdder(); // Joins that were not let in
+    final LongAdder evicted = new LongAdder();
+    final LatencyHistogram drawLatency = new LatencyHistogram(); // Microseconds from drawShape to each user
+    final LatencyHistogram previewLatency = new LatencyHistogram();
+
+    private final int drawWeight, previewWeight, rejoinWeight;
+
+    private LoadGenerator(String mix) {
+        int draw = 0, preview = 0, rejoin = 0;
+        for (String part : mix.split(",")) {
+            String[] weight = part.trim().split("=");
+            int value = Integer.parseInt(weight[1].trim());
+            switch (weight[0].trim()) {
+                case "draw":
+                    draw = value;
+                    break;
+                case "preview":
+                    preview = value;
+                    break;
+                case "rejoin":
+                    rejoin = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown action " + weight[0] + " in " + mix);
+            }
+        }
+        if (draw + preview + rejoin <= 0) {
+            throw new IllegalArgumentException("No action in " + mix);
+        }
+        this.drawWeight = draw;
+        this.previewWeight = preview;
+        this.rejoinWeight = rejoin;
+    }
+
+    public static void main(String[] args) throws RemoteException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+        setDefault("whiteboard.autoApprove", ".*");
+        setDefault("whiteboard.journal", "false");
+
+        LoadGenerator load = new LoadGenerator(MIX);
+        ServerRemoteObj boardServer = new ServerRemoteObj(new HeadlessServerGUI());
+        boardServer.setManagerName("manager");
+        // Calls go through the stub, so they are marshalled and sent over loopback like a remote client's
+        ServerInterface server = (ServerInterface) RemoteObject.toStub(boardServer);
+
+        System.out.println("Load: " + USERS + " users, " + OPS_PER_SEC + " actions/s each, mix " + MIX
+                + ", " + DURATION_SEC + " s");
+        int threads = Math.max(8, Math.min(USERS, 256)); // Remote calls block, users must not wait on each other
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(threads);
+        List<SimulatedClient> users = new ArrayList<>();
+        long periodMicros = Math.max(1, (long) (1_000_000 / OPS_PER_SEC));
+        for (int i = 0; i < USERS; i++) {
+            SimulatedClient user = new SimulatedClient(load, server, "user" + i, i);
+            users.add(user);
+            long start = RAMP_SEC * 1_000_000L * i / Math.max(1, USERS);
+            executor.schedule(user::join, start, TimeUnit.MICROSECONDS);
+            executor.scheduleAtFixedRate(() -> load.act(user), start + periodMicros, periodMicros,
+                    TimeUnit.MICROSECONDS);
+            executor.scheduleAtFixedRate(user::heartbeat, start + HEARTBEAT_MS * 1000, HEARTBEAT_MS * 1000,
+                    TimeUnit.MICROSECONDS);
+        }
+
+        long startTime = System.nanoTime();
+        for (int elapsed = REPORT_SEC; elapsed <= DURATION_SEC; elapsed += REPORT_SEC) {
+            Thread.sleep(REPORT_SEC * 1000L);
+            System.out.println(load.report(elapsed, (System.nanoTime() - startTime) / 1e9));
+        }
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        System.out.println("Final: " + load.report(DURATION_SEC, (System.nanoTime() - startTime) / 1e9));
+        for (SimulatedClient user : users) {
+            if (user.isJoined()) {
+                user.leave();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    private void act(SimulatedClient user) {
+        if (!user.isJoined()) {
+            return; // Still joining
+        }
+        int pick = ThreadLocalRandom.current().nextInt(drawWeight + previewWeight + rejoinWeight);
+        if (pick < drawWeight) {
+            user.draw();
+        } else if (pick < drawWeight + previewWeight) {
+            user.preview();
+        } else {
+            user.rejoin();
+        }
+    }
+
+    // Totals since the start, e.g. "t=10s draws 298/s, previews 680/s, ... draw fan-out p50 1.2 ms ..."
+    private String report(int elapsed, double seconds) {
+        return String.format("t=%ds draws %.0f/s, previews %.0f/s, rejoins %d, delivered %.0f/s, "
+                        + "errors %d, refused %d, evicted %d | draw fan-out %s | preview fan-out %s",
+                elapsed, draws.sum() / seconds, previews.sum() / seconds, rejoins.sum(),
+                delivered.sum() / seconds, errors.sum(), refused.sum(), evicted.sum(),
+                describe(drawLatency), describe(previewLatency));
+    }
+
+    private static String describe(LatencyHistogram latency) {
+        return String.format("p50 %.2f ms, p99 %.2f ms, p999 %.2f ms, max %.2f ms (%d)",
+                latency.percentile(0.5) / 1000.0, latency.percentile(0.99) / 1000.0,
+                latency.percentile(0.999) / 1000.0, latency.max() / 1000.0, latency.count());
+    }
+}
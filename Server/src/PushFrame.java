@@ -0,0 +1,87 @@
+import java.io.*;
+import java.util.List;
+
+// Frames of the push channel, the optional TCP connection the server pushes updates through instead of
+// calling back into each client over RMI. A frame is: length (int, of what follows) | type (byte) | payload.
+// Payloads use the same DataOutput encoding as the RMI messages.
+public final class PushFrame {
+    public static final byte WELCOME = 1; // token (long), passed to join() to tie the connection to the client
+    public static final byte OP = 2; // BoardOp
+    public static final byte SYNC = 3; // BoardSync
+    public static final byte PARTIAL = 4; // author | has drawing (boolean) | ShapeRecord
+    public static final byte CLIENT_LIST = 5; // count | names
+    public static final byte CLEAR = 6; // No payload
+    public static final byte KICKED = 7; // No payload, the server closes the connection after it
+    public static final byte COMPRESSED = 8; // codec (byte) | length of the frames | the frames, compressed
+    public static final int MAX_SIZE = 512 << 20; // A whole board fits, anything bigger is a broken stream
+
+    private interface Payload {
+        void write(DataOutput out) throws IOException;
+    }
+
+    private PushFrame() {
+    }
+
+    public static byte[] welcome(long token) {
+        return encode(WELCOME, out -> out.writeLong(token));
+    }
+
+    public static byte[] op(BoardOp op) {
+        return encode(OP, op::write);
+    }
+
+    public static byte[] sync(BoardSync sync) {
+        return encode(SYNC, sync::write);
+    }
+
+    public static byte[] partial(String author, ShapeRecord curDrawing) {
+        return encode(PARTIAL, out -> {
+            out.writeUTF(author);
+            out.writeBoolean(curDrawing != null);
+            if (curDrawing != null) {
+                curDrawing.write(out);
+            }
+        });
+    }
+
+    public static byte[] clientList(List<String> clientList) {
+        return encode(CLIENT_LIST, out -> {
+            out.writeInt(clientList.size());
+            for (String name : clientList) {
+                out.writeUTF(name);
+            }
+        });
+    }
+
+    public static byte[] compressed(byte codec, int rawLength, byte[] data) {
+        return encode(COMPRESSED, out -> {
+            out.writeByte(codec);
+            out.writeInt(rawLength);
+            out.write(data);
+        });
+    }
+
+    // Frames without a payload
+    public static byte[] signal(byte type) {
+        return encode(type, out -> {});
+    }
+
+    private static byte[] encode(byte type, Payload payload) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0); // Length, filled in below
+            out.writeByte(type);
+            payload.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by an in-memory stream
+        }
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - 4;
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+}
@@ -0,0 +1,247 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Optional push channel, turned on with -Dwhiteboard.pushPort=<port>. Clients keep one TCP connection open and
+// the server writes their updates to it as frames (see PushFrame) instead of making an RMI call per update.
+// A single selector thread serves every connection and only writes frames that are ready. They are taken
+// from the client's ClientSender queue and encoded on an encoder thread, one batch ahead of the socket, so a
+// whole board sent after an open does not hold up the other connections, and a slow client still only backs
+// up its own queue, without a thread blocked on it.
+public class PushServer {
+    // Connections not joined by then are dropped, a little after the manager stopped being able to let them in
+    private static final long PENDING_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(AdmissionQueue.TIMEOUT_SEC) + 10000;
+    private static final int ENCODERS =
+            Integer.getInteger("whiteboard.pushEncoders", Runtime.getRuntime().availableProcessors());
+
+    private final ServerRemoteObj server;
+    private final Selector selector;
+    private final ServerSocketChannel acceptor;
+    // Connections that got their token but whose client has not joined yet
+    private final Map<Long, Connection> unbound = new ConcurrentHashMap<>();
+    // Connections with new updates queued, picked up by the selector thread
+    private final ConcurrentLinkedQueue<Connection> ready = new ConcurrentLinkedQueue<>();
+    private final SecureRandom random = new SecureRandom();
+    private final ExecutorService encoder = Executors.newFixedThreadPool(ENCODERS, r -> {
+        Thread thread = new Thread(r, "push-encoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final long token;
+        private final long opened = System.currentTimeMillis();
+        private volatile ClientSender sender; // Set once the client joined
+        private ByteBuffer out; // Frames being written
+        // Next frames, encoded while out is written. Set by the encoder, taken by the selector thread
+        private final AtomicReference<ByteBuffer> encoded = new AtomicReference<>();
+        private final AtomicBoolean encoding = new AtomicBoolean(false); // One encoder at a time owns sender
+        private final ByteBuffer in = ByteBuffer.allocate(64);
+
+        private Connection(SocketChannel channel, long token) throws IOException {
+            this.channel = channel;
+            this.token = token;
+            this.out = ByteBuffer.wrap(PushFrame.welcome(token));
+            this.key = channel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+        }
+
+        // New updates were queued for this client, or it was closed
+        public void wakeup() {
+            encodeNext();
+            ready.add(this);
+            selector.wakeup();
+        }
+
+        // Start encoding the next batch if there is one, the last one was taken and nobody is encoding yet.
+        // An encoder may hand over its batch between the check and taking the flag, then the flag goes back:
+        // only one batch waits at a time, the next is started when the selector takes it.
+        private void encodeNext() {
+            while (sender != null && sender.hasUpdates() && encoded.get() == null
+                    && encoding.compareAndSet(false, true)) {
+                if (encoded.get() == null) {
+                    encoder.execute(this::encode);
+                    return;
+                }
+                encoding.set(false);
+            }
+        }
+
+        // Runs on an encoder thread
+        private void encode() {
+            ByteBuffer frames = null;
+            try {
+                frames = sender.nextFrames();
+                if (frames != null && !encoded.compareAndSet(null, frames)) {
+                    throw new IllegalStateException("Encoded frames not written yet"); // Would be lost
+                }
+            } finally {
+                encoding.set(false);
+            }
+            if (frames != null || sender.isClosed()) {
+                ready.add(this); // Write them, or close the connection once everything is written
+                selector.wakeup();
+            }
+            encodeNext(); // Queued while this batch was taken
+        }
+
+        private void write() throws IOException {
+            while (true) {
+                if (out == null || !out.hasRemaining()) {
+                    out = encoded.getAndSet(null);
+                    encodeNext(); // Encoded while this one is written
+                    if (out == null) {
+                        break;
+                    }
+                }
+                channel.write(out);
+                if (out.hasRemaining()) {
+                    return; // Socket buffer is full, carry on when it drains
+                }
+            }
+            // An encoder that is done has already handed over its last frames
+            if (sender != null && sender.isClosed() && !encoding.get() && encoded.get() == null) {
+                close(); // Left or kicked, and everything for it was written
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        // Clients do not send anything, reading only notices when they go away
+        private void read() throws IOException {
+            in.clear();
+            if (channel.read(in) < 0) {
+                close();
+            }
+        }
+
+        private void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            unbound.remove(token);
+            ClientSender gone = sender;
+            if (gone != null && !gone.isClosed()) {
+                server.leaveLater(gone.getClient()); // Not on the selector thread
+            }
+        }
+    }
+
+    public PushServer(ServerRemoteObj server, int port) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.acceptor = ServerSocketChannel.open();
+        acceptor.bind(new InetSocketAddress(port));
+        acceptor.configureBlocking(false);
+        acceptor.register(selector, SelectionKey.OP_ACCEPT);
+        Thread thread = new Thread(this::loop, "push-selector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return acceptor.socket().getLocalPort();
+    }
+
+    // The client that got this token joined, its updates go out through the connection from now on.
+    // Returns null if there is no such connection, the client then gets RMI callbacks.
+    public Connection bind(long token) {
+        return unbound.remove(token);
+    }
+
+    public void attach(Connection connection, ClientSender sender) {
+        connection.sender = sender;
+        connection.wakeup();
+    }
+
+    private void loop() {
+        while (selector.isOpen()) {
+            try {
+                selector.select(1000);
+                Connection woken;
+                while ((woken = ready.poll()) != null) {
+                    if (woken.key.isValid()) {
+                        woken.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException e) {
+                        connection.close(); // Client went away
+                    }
+                }
+                expireUnbound();
+            } catch (IOException | ClosedSelectorException e) {
+                if (selector.isOpen()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = acceptor.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        long token = random.nextLong() & Long.MAX_VALUE;
+        unbound.put(token, new Connection(channel, token));
+    }
+
+    private void expireUnbound() {
+        long now = System.currentTimeMillis();
+        Iterator<Connection> iterator = unbound.values().iterator();
+        while (iterator.hasNext()) {
+            Connection connection = iterator.next();
+            if (now - connection.opened > PENDING_TIMEOUT_MS) {
+                iterator.remove();
+                connection.close();
+            }
+        }
+    }
+
+    public void close() {
+        encoder.shutdownNow();
+        try {
+            selector.close();
+            acceptor.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
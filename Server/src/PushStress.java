@@ -0,0 +1,197 @@
+import java.awt.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Checks the push channel while many threads update the board at once. Push clients join an in-process
+// server, writers draw shapes and resend the client list concurrently, and every client must get every op
+// number once and in order, and every client list. Run with the server classes on the classpath:
+//   java PushStress
+// Settings, as -Dwhiteboard.stress.<name>:
+//   clients (8)        push connections
+//   writers (8)        threads drawing shapes, each draws shapes (5000)
+//   lists (500)        client lists sent by each writer, between its shapes
+// The server runs with two push encoders and a queue big enough that nothing is coalesced, unless set
+// otherwise. Exits with 1 if an update was lost.
+public class PushStress {
+    private static final int CLIENTS = Integer.getInteger("whiteboard.stress.clients", 8);
+    private static final int WRITERS = Integer.getInteger("whiteboard.stress.writers", 8);
+    private static final int SHAPES = Integer.getInteger("whiteboard.stress.shapes", 5000);
+    private static final int LISTS = Integer.getInteger("whiteboard.stress.lists", 500);
+
+    // A push client that only checks what arrives
+    private static class Receiver extends UnicastRemoteObject implements ClientInterface {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final transient DataInputStream in;
+        private final transient CountDownLatch done = new CountDownLatch(1);
+        private final long expectedSeq;
+        private final int expectedLists;
+        private volatile long lastSeq;
+        private volatile int lists = 0;
+        private volatile String error;
+
+        Receiver(String name, DataInputStream in, long joinSeq, long expectedSeq, int expectedLists)
+                throws RemoteException {
+            super();
+            this.name = name;
+            this.in = in;
+            this.lastSeq = joinSeq;
+            this.expectedSeq = expectedSeq;
+            this.expectedLists = expectedLists;
+        }
+
+        public void setClientName(String username) {
+        }
+
+        public String getClientName() {
+            return name;
+        }
+
+        public void joinResult(int result) {
+        }
+
+        public void applyUpdates(byte[] frames) {
+            fail("got an RMI callback instead of push frames");
+        }
+
+        public void closeByServer() {
+        }
+
+        private void fail(String message) {
+            if (error == null) {
+                error = message;
+            }
+            done.countDown();
+        }
+
+        private void read() {
+            try {
+                while (lastSeq < expectedSeq || lists < expectedLists) {
+                    byte[] frame = new byte[in.readInt()];
+                    in.readFully(frame);
+                    DataInputStream payload = new DataInputStream(new ByteArrayInputStream(frame));
+                    switch (payload.readByte()) {
+                        case PushFrame.OP:
+                            received(BoardOp.read(payload).getSeq());
+                            break;
+                        case PushFrame.SYNC:
+                            BoardSync sync = BoardSync.read(payload);
+                            if (sync.isReset()) {
+                                fail("got a reset");
+                                return;
+                            }
+                            for (BoardOp op : sync.getOps()) {
+                                received(op.getSeq());
+                            }
+                            if (sync.getLastSeq() != lastSeq) {
+                                fail("sync up to " + sync.getLastSeq() + " ended at op " + lastSeq);
+                            }
+                            break;
+                        case PushFrame.CLIENT_LIST:
+                            lists++;
+                            break;
+                        default:
+                            break;
+                    }
+                    if (error != null) {
+                        return;
+                    }
+                }
+                done.countDown();
+            } catch (IOException e) {
+                fail("connection lost: " + e);
+            }
+        }
+
+        private void received(long seq) {
+            if (seq != lastSeq + 1) {
+                fail("got op " + seq + " after op " + lastSeq);
+            }
+            lastSeq = seq;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        setDefault("whiteboard.pushPort", "47190");
+        setDefault("whiteboard.pushEncoders", "2");
+        setDefault("whiteboard.sendQueueCapacity", "1000000");
+        setDefault("whiteboard.autoApprove", ".*");
+        setDefault("whiteboard.journal", "false");
+        setDefault("whiteboard.heartbeatMs", "600000");
+
+        ServerRemoteObj server = new ServerRemoteObj(new HeadlessServerGUI());
+        server.setManagerName("manager");
+        long joinSeq = server.syncBoard(-1).getLastSeq();
+        long expectedSeq = joinSeq + (long) WRITERS * SHAPES;
+        List<Receiver> receivers = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPushPort()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            byte[] welcome = new byte[in.readInt()];
+            in.readFully(welcome);
+            DataInputStream token = new DataInputStream(new ByteArrayInputStream(welcome));
+            token.readByte();
+            Receiver receiver = new Receiver("client" + i, in, joinSeq, expectedSeq, WRITERS * LISTS);
+            if (server.join(receiver.name, receiver, token.readLong()) != ServerInterface.JOINED) {
+                throw new IllegalStateException(receiver.name + " could not join");
+            }
+            receivers.add(receiver);
+            Thread thread = new Thread(receiver::read, "stress-" + receiver.name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        System.out.println("Stress: " + CLIENTS + " clients, " + WRITERS + " writers, " + SHAPES + " shapes and "
+                + LISTS + " client lists each");
+        long start = System.nanoTime();
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < SHAPES; i++) {
+                    server.drawShape(null, ShapeRecord.of(new Rectangle(i % 1000, writer * 50, 10, 10),
+                            Color.BLACK, null));
+                    if ((long) i * LISTS / SHAPES != (long) (i + 1) * LISTS / SHAPES) {
+                        server.syncClientList();
+                    }
+                }
+            }, "stress-writer" + w);
+            writers.add(thread);
+            thread.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        boolean lost = false;
+        for (Receiver receiver : receivers) {
+            if (!receiver.done.await(60, TimeUnit.SECONDS)) {
+                receiver.fail("timed out");
+            }
+            if (receiver.error != null) {
+                lost = true;
+                System.out.println(receiver.name + ": " + receiver.error + " (op " + receiver.lastSeq + " of "
+                        + expectedSeq + ", " + receiver.lists + " of " + WRITERS * LISTS + " client lists)");
+            }
+        }
+        System.out.printf("%s in %.1f s%n", lost ? "Updates were lost" : "Every client got every update",
+                (System.nanoTime() - start) / 1e9);
+        System.exit(lost ? 1 : 0);
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+}
@@ -9,6 +9,9 @@ import java.awt.image.BufferedImage;
 import java.util.*;
 import java.util.List;
 import java.awt.geom.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ServerGUI {
     private static ServerInterface server;
@@ -18,10 +21,30 @@ public class ServerGUI {
     private static int serverPortNumber;
     private static String managerName;
     public whiteBoard whiteBoard;
+    private JProgressBar fileProgress;
+    // Join requests waiting for the manager, answered from a dialog that does not block the board
+    private AdmissionQueue admission;
+    private JDialog joinDialog;
+    private DefaultListModel<String> joinRequestsModel;
+    private JList<String> joinRequests;
+    // The manager's board follows the server board like a client. Syncs are built on syncExecutor, a big
+    // board would freeze the window otherwise, and only applied on the EDT.
+    private long lastSeq = -1; // Latest board op shown, only touched on the EDT
+    private long fetchedSeq = -1; // Latest board op a sync was built for, only touched on syncExecutor
+    private final AtomicBoolean syncQueued = new AtomicBoolean(false);
+    private final ExecutorService syncExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "manager-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
     private static Color[] colors = {Color.BLACK, Color.BLUE, Color.CYAN, Color.DARK_GRAY, Color.GRAY, Color.GREEN,
             Color.LIGHT_GRAY, Color.MAGENTA, Color.ORANGE, Color.PINK, Color.RED, Color.YELLOW,
             new Color(147, 112, 219), new Color(50, 205, 50), new Color(0, 191, 255), new Color(139, 69, 19)};
 
+    // No window, for a server without a display, see HeadlessServerGUI
+    protected ServerGUI(boolean windowless) {
+    }
+
     public ServerGUI() {
         frame = new JFrame("Shared Board White Server");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -34,10 +57,15 @@ public class ServerGUI {
         frame.add(new JLabel(" Connected Clients List: "), BorderLayout.NORTH);
 
         // Add the server info panel
-        JPanel serverInfoPanel = new JPanel(new GridLayout(3, 1));
+        JPanel serverInfoPanel = new JPanel(new GridLayout(4, 1));
         serverInfoPanel.add(new JLabel(" Server Address: 127.0.0.1 "));
         serverInfoPanel.add(new JLabel(" Port: " + serverPortNumber));
         serverInfoPanel.add(new JLabel(" Manager Name: " + managerName));
+        // Progress of the save or open running in the background
+        fileProgress = new JProgressBar(0, 100);
+        fileProgress.setStringPainted(true);
+        fileProgress.setString("");
+        serverInfoPanel.add(fileProgress);
         frame.add(serverInfoPanel, BorderLayout.SOUTH);
 
         // Display the joined clients list
@@ -183,8 +211,59 @@ public class ServerGUI {
         clientListModel.removeElement(clientName);
     }
 
+    public void setAdmissionQueue(AdmissionQueue admission) {
+        this.admission = admission;
+    }
+
+    // Names still waiting to join, from any thread. The dialog shows while there are any.
+    public void joinRequestsChanged(List<String> names) {
+        SwingUtilities.invokeLater(() -> {
+            if (joinDialog == null) {
+                createJoinDialog();
+            }
+            List<String> selected = joinRequests.getSelectedValuesList();
+            joinRequestsModel.clear();
+            joinRequestsModel.addAll(names);
+            for (String name : selected) {
+                int index = joinRequestsModel.indexOf(name);
+                if (index != -1) {
+                    joinRequests.addSelectionInterval(index, index);
+                }
+            }
+            joinDialog.setVisible(!names.isEmpty());
+        });
+    }
+
+    private void createJoinDialog() {
+        joinDialog = new JDialog(frame, "New Client Requests", false);
+        joinDialog.setDefaultCloseOperation(JDialog.HIDE_ON_CLOSE);
+        joinDialog.setLayout(new BorderLayout());
+        joinDialog.add(new JLabel(" These users request to join the whiteboard: "), BorderLayout.NORTH);
+        joinRequestsModel = new DefaultListModel<>();
+        joinRequests = new JList<>(joinRequestsModel);
+        joinDialog.add(new JScrollPane(joinRequests), BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel(new GridLayout(2, 2));
+        JButton approve = new JButton("Approve");
+        approve.addActionListener(e -> admission.decide(joinRequests.getSelectedValuesList(), true));
+        JButton refuse = new JButton("Refuse");
+        refuse.addActionListener(e -> admission.decide(joinRequests.getSelectedValuesList(), false));
+        JButton approveAll = new JButton("Approve All");
+        approveAll.addActionListener(e -> admission.decide(Collections.list(joinRequestsModel.elements()), true));
+        JButton refuseAll = new JButton("Refuse All");
+        refuseAll.addActionListener(e -> admission.decide(Collections.list(joinRequestsModel.elements()), false));
+        buttons.add(approve);
+        buttons.add(refuse);
+        buttons.add(approveAll);
+        buttons.add(refuseAll);
+        joinDialog.add(buttons, BorderLayout.SOUTH);
+        joinDialog.setSize(320, 300);
+        joinDialog.setLocationRelativeTo(frame);
+    }
+
     public void setServerInterface(ServerInterface server) {
         this.server = server;
+        boardChanged(); // Show the board recovered at startup
     }
 
     public static void setupError(String err) {
@@ -246,13 +325,13 @@ public class ServerGUI {
         private int x, y; // Mouse position
         private int width, height; // Used for drawing shapes. Computed by mouse position
         // store drawn shapes , positions and corresponding colours
-        public ArrayList<Object> shapes;
-        public ArrayList<Color> colors;
-        public ArrayList<Point> shapePositions;
-        // Temporarily draw partial shapes
-        public Shape syncPartialDrawing;
-        public Color syncPartialColor;
-        public String syncPartialShape;
+        public BoardModel board;
+        // Committed shapes are painted from this image, not redrawn from the lists each time
+        private BoardRaster raster;
+        // Spatial index of the shapes, for partial repaints
+        private ShapeGrid grid;
+        // Temporarily draw partial shapes, one per author
+        private PartialPreviews partials;
         private JTextField textBox;
         private boolean textBoxEnabled = false;
 
@@ -260,13 +339,13 @@ public class ServerGUI {
             setPreferredSize(new Dimension(700, 600));
             setBackground(Color.WHITE);
 
-            shapes = new java.util.ArrayList<>();
-            colors = new java.util.ArrayList<>();
-            shapePositions = new java.util.ArrayList<>();
+            board = new BoardModel();
 
-            syncPartialDrawing = null;
-            syncPartialColor = null;
-            syncPartialShape = null;
+            raster = new BoardRaster();
+            grid = new ShapeGrid();
+            partials = new PartialPreviews();
+            // Previews of users that stopped sending mid-drag are dropped after a while
+            new javax.swing.Timer(1000, e -> repaintDirty(partials.expire())).start();
 
             MouseAdapter mouseAdapter = new MouseAdapter() {
                 @Override
@@ -277,21 +356,23 @@ public class ServerGUI {
 
                 @Override
                 public void mouseReleased(MouseEvent e) {
-                    clearPartialShapes();
                     drawShape(e);
-                    shapes.add(currentDrawing);
-                    colors.add(currentColor);
-                    shapePositions.add(new Point(x, y));
+                    // The server adds the shape back to this board through addShape()
+                    drawToServer(ShapeRecord.of(currentDrawing, currentColor, new Point(x, y)));
                     currentDrawing = null;
                     repaint();
-                    drawToServer();
                 }
 
                 @Override
                 public void mouseDragged(MouseEvent e) {
+                    // Only the area of the old and new drawing is repainted
+                    Rectangle dirty = currentDrawing == null ? null : PartialPreviews.bounds(currentDrawing);
                     drawShape(e);
+                    if (currentDrawing != null) {
+                        dirty = PartialPreviews.union(dirty, PartialPreviews.bounds(currentDrawing));
+                    }
                     drawPartialToServer(currentDrawing, currentColor, currentShape);
-                    repaint();
+                    repaintDirty(dirty);
                 }
             };
 
@@ -309,31 +390,44 @@ public class ServerGUI {
                 FontMetrics fm = textBox.getFontMetrics(textBox.getFont());
 
                 // Only store the text string and its position, not the text box object itself
-                shapes.add(textBox.getText());
-                shapePositions.add(new Point(textBox.getX(), (textBox.getY() + fm.getAscent())));
-                colors.add(currentColor);
+                Point textPosition = new Point(textBox.getX(), (textBox.getY() + fm.getAscent()));
+                drawToServer(ShapeRecord.of(textBox.getText(), currentColor, textPosition));
                 textBox.setText("");
-                repaint();
-                drawToServer();
             });
             add(textBox);
         }
 
-        // add a partial shape
-        public void addPartialShape(Shape curDrawing, Color curColor, String curShape) {
-            syncPartialDrawing = curDrawing;
-            syncPartialColor = curColor;
-            syncPartialShape = curShape;
+        // add or replace the partial shape of an author, null curDrawing removes it
+        public void updatePartialShape(String author, Shape curDrawing, Color curColor) {
+            repaintDirty(partials.update(author, curDrawing, curColor));
+        }
+
+        // clear the partial shape of an author after its shape arrived
+        public void removePartialShape(String author) {
+            repaintDirty(partials.remove(author));
+        }
+
+        // Append a committed shape to the board and the index, returns the area to repaint
+        private Rectangle appendShape(ShapeRecord shape, String author) {
+            int index = board.add(shape, author);
+            Rectangle bounds = board.bounds(index);
+            grid.add(index, bounds);
+            return bounds;
+        }
 
-            repaint();
+        // The board was replaced or cleared, index and render it again
+        private void rebuildIndex() {
+            grid.clear();
+            for (int i = 0; i < board.size(); i++) {
+                grid.add(i, board.bounds(i));
+            }
+            raster.invalidate();
         }
 
-        // clear partial shapes after mouse released
-        public void clearPartialShapes() {
-            syncPartialDrawing = null;
-            syncPartialColor = null;
-            syncPartialShape = null;
-            repaint();
+        private void repaintDirty(Rectangle dirty) {
+            if (dirty != null) {
+                repaint(dirty);
+            }
         }
 
 
@@ -381,21 +475,11 @@ public class ServerGUI {
             super.paintComponent(board);
             Graphics2D board2D = (Graphics2D) board;
 
-            // Draw the all shapes and text boxes
-            for (int i = 0; i < shapes.size(); i++) {
-                board2D.setColor(colors.get(i));
-                if (shapes.get(i) instanceof Shape) {
-                    board2D.draw((Shape) shapes.get(i));
-                } else if (shapes.get(i) instanceof String) { // If it's text box
-                    board2D.drawString((String) shapes.get(i), (int) shapePositions.get(i).getX(), (int) shapePositions.get(i).getY());
-                }
-            }
+            // Draw the all shapes and text boxes, only new ones are rendered, the rest comes from the cached image
+            raster.paint(board2D, this, grid, this.board);
 
             // Draw the partial shapes
-            if (syncPartialDrawing != null) {
-                board2D.setColor(syncPartialColor);
-                board2D.draw(syncPartialDrawing);
-            }
+            partials.paint(board2D);
 
             // Display the current drawing shape
             if (currentDrawing != null) {
@@ -404,9 +488,9 @@ public class ServerGUI {
             }
         }
 
-        private void drawToServer() {
+        private void drawToServer(ShapeRecord shape) {
             try {
-                server.draw(null);
+                server.drawShape(null, shape);
             } catch (RemoteException e) {
                 e.printStackTrace();
             }
@@ -414,7 +498,9 @@ public class ServerGUI {
 
         private void drawPartialToServer(Shape curDrawing, Color curColor, String curShape) {
             try {
-                server.partialDraw(null, curDrawing, curColor, curShape);
+                if (curDrawing != null) {
+                    server.partialDraw(null, ShapeRecord.of(curDrawing, curColor, null));
+                }
             } catch (RemoteException e) {
                 e.printStackTrace();
             }
@@ -443,32 +529,85 @@ public class ServerGUI {
         }
     }
 
-    public void updateBoardStatus(ArrayList<Object> shapes, ArrayList<Color> colors, ArrayList<Point> shapePositions) {
-        this.whiteBoard.shapes = shapes;
-        this.whiteBoard.colors = colors;
-        this.whiteBoard.shapePositions = shapePositions;
-        this.whiteBoard.repaint();
+    // The server board changed, catch up. Several changes in a row are picked up by one sync, which is
+    // built here and handed to the EDT in order, after the syncs built before it.
+    public void boardChanged() {
+        if (syncQueued.compareAndSet(false, true)) {
+            syncExecutor.execute(() -> {
+                syncQueued.set(false);
+                if (server == null) {
+                    return; // Not connected yet, setServerInterface() syncs
+                }
+                try {
+                    BoardSync sync = server.syncBoard(fetchedSeq);
+                    fetchedSeq = sync.getLastSeq();
+                    SwingUtilities.invokeLater(() -> applySync(sync));
+                } catch (RemoteException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
     }
 
-    public void updatePartialDraw(Shape curDrawing, Color curColor, String curShape) {
-        this.whiteBoard.addPartialShape(curDrawing, curColor, curShape);
+    private void applySync(BoardSync sync) {
+        if (sync.getLastSeq() <= lastSeq) {
+            return;
+        }
+        if (sync.isReset()) {
+            this.whiteBoard.board = new BoardModel(sync.getOps().size());
+            this.whiteBoard.rebuildIndex();
+        }
+        if (!sync.isReset() && sync.getOps().size() == 1) {
+            BoardOp op = sync.getOps().get(0);
+            if (op.getAuthor() != null) {
+                this.whiteBoard.removePartialShape(op.getAuthor()); // The finished shape replaces its preview
+            }
+            // Only the area of the new shape is repainted
+            this.whiteBoard.repaintDirty(this.whiteBoard.appendShape(op.getShape(), op.getAuthor()));
+        } else {
+            for (BoardOp op : sync.getOps()) {
+                if (op.getAuthor() != null) {
+                    this.whiteBoard.partials.remove(op.getAuthor()); // Whole board is repainted below
+                }
+                this.whiteBoard.appendShape(op.getShape(), op.getAuthor());
+            }
+            this.whiteBoard.repaint();
+        }
+        lastSeq = sync.getLastSeq();
     }
 
-    public void clear() {
-        // Reset all values
-        this.whiteBoard.shapes.clear();
-        this.whiteBoard.colors.clear();
-        this.whiteBoard.shapePositions.clear();
+    public void updatePartialDraw(String author, ShapeRecord curDrawing) {
+        Shape drawing = curDrawing == null ? null : (Shape) curDrawing.toShape();
+        Color color = curDrawing == null ? null : curDrawing.color();
+        SwingUtilities.invokeLater(() -> this.whiteBoard.updatePartialShape(author, drawing, color));
+    }
 
-        this.whiteBoard.syncPartialDrawing = null;
-        this.whiteBoard.syncPartialColor = null;
-        this.whiteBoard.syncPartialShape = null;
+    public void showFileProgress(String task, double fraction) {
+        SwingUtilities.invokeLater(() -> {
+            fileProgress.setValue((int) (fraction * 100));
+            fileProgress.setString(task + " " + (int) (fraction * 100) + "%");
+        });
+    }
 
-        this.whiteBoard.currentDrawing = null;
-        this.whiteBoard.currentColor = Color.BLACK;
-        this.whiteBoard.currentShape = "Line";
+    public void fileDone(String message) {
+        SwingUtilities.invokeLater(() -> {
+            fileProgress.setValue(0);
+            fileProgress.setString(message);
+        });
+    }
+
+    public void clear() {
+        // Called from the I/O thread, reset on the EDT
+        SwingUtilities.invokeLater(() -> {
+            // Reset all values, the board itself follows the server through boardChanged()
+            this.whiteBoard.partials.clear();
 
-        this.whiteBoard.repaint();
+            this.whiteBoard.currentDrawing = null;
+            this.whiteBoard.currentColor = Color.BLACK;
+            this.whiteBoard.currentShape = "Line";
+
+            this.whiteBoard.repaint();
+        });
 
 //        JDialog dialog = new JDialog(this, "Notification", false);
 //        dialog.setSize(250, 100);
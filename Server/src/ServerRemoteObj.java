@@ -8,60 +8,105 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.*;
 
-import org.json.simple.parser.*;
-import org.json.simple.*;
-
 import java.io.*;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ServerRemoteObj extends UnicastRemoteObject implements ServerInterface {
     private ServerGUI serverGUI;
     private String managerName;
-    public List<String> clientList; //Name of connected clients
-    // White board status
-    private ArrayList<Object> shapes;
-    private ArrayList<Color> colors;
-    private ArrayList<Point> shapePositions;
-    public List<ClientInterface> clients; // Connected clients objects
+    // White board status, one immutable version at a time. Writers append with compare-and-set and readers
+    // never lock. Shape i is also the op numbered baseSeq + 1 + i, the board is the op log
+    private final AtomicReference<BoardState> board = new AtomicReference<>(BoardState.of(new BoardModel(), 0));
+    // Connected clients by session id, stub and name, each with its own outbound queue
+    private final SessionRegistry sessions = new SessionRegistry();
+    // Join requests waiting for the manager
+    private final AdmissionQueue admission;
+    private static final int LOAD_CHUNK = 4096; // Shapes broadcast at a time while a file is opened
+    // Clients call heartbeat() every HEARTBEAT_MS. One that misses LEASE_MISSED of them, or that failed
+    // MAX_SEND_FAILURES callbacks in a row, is evicted and no broadcast waits on it again.
+    private static final long HEARTBEAT_MS = Long.getLong("whiteboard.heartbeatMs", 5000);
+    private static final int LEASE_MISSED = Integer.getInteger("whiteboard.leaseMissed", 3);
+    private static final int MAX_SEND_FAILURES = Integer.getInteger("whiteboard.maxSendFailures", 3);
+    // Optional push channel for client updates, null when -Dwhiteboard.pushPort is not set
+    private PushServer pushServer;
+    // Autosave of every accepted shape, null when turned off with -Dwhiteboard.journal=false
+    private BoardJournal journal;
+    // Save and open run here, one at a time, never on the Swing or RMI threads
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "board-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "lease-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public ServerRemoteObj(ServerGUI serverGUI) throws RemoteException {
         super();
         this.serverGUI = serverGUI;
-        clientList = new ArrayList<>();
-        clients = new ArrayList<>();
-        shapes = new ArrayList<>();
-        colors = new ArrayList<>();
-        shapePositions = new ArrayList<>();
-    }
-
-    public synchronized int join(String clientName, ClientInterface client) {
-        if (clientList.contains(clientName) || clientName.equals(managerName)) {
-            return 2; // Client name duplicate
-        }
-        // Waiting for server's approval to join
-        if (approveJoin(clientName)) {
-            // Add client to the list
-            serverGUI.addClient(clientName);
-            clientList.add(clientName);
-            clients.add(client);
+        admission = new AdmissionQueue(this, sessions, serverGUI);
+        serverGUI.setAdmissionQueue(admission);
+        reaper.scheduleAtFixedRate(this::evictDead, HEARTBEAT_MS, HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+        int pushPort = Integer.getInteger("whiteboard.pushPort", 0);
+        if (pushPort > 0) {
             try {
-                client.setClientName(clientName);
-            } catch (RemoteException e) {
+                pushServer = new PushServer(this, pushPort);
+                System.out.println("Push channel listening on port " + pushServer.getPort());
+            } catch (IOException e) {
+                System.err.println("Could not open the push channel, clients will get RMI callbacks");
+                e.printStackTrace();
+            }
+        }
+        if (Boolean.parseBoolean(System.getProperty("whiteboard.journal", "true"))) {
+            // Bring back the board from before the last shutdown or crash
+            try {
+                BoardModel recovered = new BoardModel();
+                journal = BoardJournal.open(Paths.get(System.getProperty("whiteboard.journalDir", "whiteboard_journal")), recovered);
+                board.set(BoardState.of(recovered, 1));
+                journal.start(board::get);
+                System.out.println("Recovered " + recovered.size() + " shapes from the journal");
+            } catch (IOException e) {
+                System.err.println("Could not open the board journal, drawing will not be autosaved");
                 e.printStackTrace();
             }
-            return 0;
-        } else { // Manager refused
-            return 1;
         }
     }
 
-    private static Boolean approveJoin(String clientName) {
-        int response = JOptionPane.showConfirmDialog(
-                null,
-                clientName + " request to join the whiteboard",
-                "New Client Request",
-                JOptionPane.YES_NO_OPTION
-        );
-        return response == JOptionPane.YES_OPTION;
+    // Never waits for the manager, who answers the request later through the admission queue
+    public int join(String clientName, ClientInterface client, long pushToken) {
+        if (clientName.equals(managerName)) {
+            return NAME_TAKEN; // Client name duplicate
+        }
+        return admission.submit(clientName, client, pushToken);
+    }
+
+    // Let an approved client in, returns the answer for its join
+    int admit(String clientName, ClientInterface client, long pushToken) {
+        // Updates go through the client's push connection if it opened one, RMI callbacks otherwise
+        PushServer.Connection push = pushToken < 0 || pushServer == null ? null : pushServer.bind(pushToken);
+        if (pushToken >= 0 && push == null) {
+            System.out.println(clientName + " has no push connection, using RMI callbacks");
+        }
+        // The client fetches the current board itself, only later ops are pushed
+        long sessionId = sessions.newId();
+        ClientSender sender = new ClientSender(this, client, clientName, board.get().getLastSeq(), push);
+        if (sessions.add(sessionId, clientName, client, sender) == null) {
+            sender.close();
+            return NAME_TAKEN;
+        }
+        if (push != null) {
+            pushServer.attach(push, sender);
+        }
+        serverGUI.addClient(clientName);
+        System.out.println(clientName + " joined, session " + sessionId);
+        return JOINED;
     }
 
     public void setManagerName(String managerName){
@@ -71,229 +116,315 @@ public class ServerRemoteObj extends UnicastRemoteObject implements ServerInterf
         return this.managerName;
     }
 
-    public synchronized void syncBoardStatus(ClientInterface client) {
-        try {
-            for (ClientInterface restClient : clients) {
-                if (client != null){
-                    // Sync the board status to the rest clients
-                    if (!restClient.getClientName().equals(client.getClientName())) {
-                        restClient.updateBoardStatus(shapes, colors, shapePositions);
-                        System.out.println(restClient.getClientName() + " sync");
-                    }
-                } else { // When server is drawing, client is null, sync to all clients
-                    restClient.updateBoardStatus(shapes, colors, shapePositions);
-                    System.out.println(restClient.getClientName() + " sync");
-                }
-            }
-            if (client != null){
-                serverGUI.updateBoardStatus(shapes, colors, shapePositions);
-            }
-        } catch (RemoteException e) {
-            e.printStackTrace();
-        }
+    public int getPushPort() {
+        return pushServer == null ? -1 : pushServer.getPort();
     }
 
-    public ArrayList<Object> getServerShapes() {
-        return shapes;
+    public BoardSync syncBoard(long afterSeq) {
+        return syncBoard(afterSeq, Integer.MAX_VALUE);
     }
 
-    public ArrayList<Color> getServerColors() {
-        return colors;
+    private BoardSync syncBoard(long afterSeq, int maxOps) {
+        return syncBoard(afterSeq, maxOps, null);
     }
 
-    public ArrayList<Point> getServerShapesPositions() {
-        return shapePositions;
+    // At most maxOps ops, lastSeq is the last one of them so a client can fetch a big board in chunks.
+    // With an area, only the ops whose shape intersects it are included, lastSeq still covers the rest.
+    public BoardSync syncBoard(long afterSeq, int maxOps, Rectangle area) {
+        BoardState current = board.get(); // One consistent version, even if shapes are added meanwhile
+        // A client that has not seen the last clear/open starts the board over
+        boolean reset = afterSeq < current.getBaseSeq();
+        int from = reset ? 0 : (int) Math.min(afterSeq - current.getBaseSeq(), current.size());
+        int to = (int) Math.min((long) from + maxOps, current.size());
+        return new BoardSync(reset, current.getBaseSeq() + to, current.opsRange(from, to, area));
     }
 
-    public synchronized void draw(ClientInterface client) {
-        if (client == null){
-            shapes = serverGUI.whiteBoard.shapes;
-            colors = serverGUI.whiteBoard.colors;
-            shapePositions = serverGUI.whiteBoard.shapePositions;
-            System.out.println(managerName + " drew");
-        } else {
-            List<List<?>> boardStatus = new ArrayList<>();
-            try {
-                boardStatus = client.getBoardStatus();
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
-            shapes = new ArrayList<Object>(boardStatus.get(0));
-            colors = new ArrayList<Color>();
-            shapePositions = new ArrayList<Point>();
+    // The part of the board a client looks at, found through the spatial index, to replace what it had
+    public BoardSync viewSync(Rectangle area) {
+        BoardState current = board.get();
+        return new BoardSync(true, current.getLastSeq(), current.shapesIn(area));
+    }
 
-            for (Object color : boardStatus.get(1)) {
-                colors.add((Color) color);
-            }
-            for (Object point : boardStatus.get(2)) {
-                shapePositions.add((Point) point);
-            }
-            try {
-                System.out.println(client.getClientName() + " drew");
+    public byte[] fetchBoard(long afterSeq, int maxOps, byte compression) {
+        BoardSync sync = syncBoard(afterSeq, Math.max(1, maxOps));
+        return PayloadCodec.compress(PushFrame.sync(sync), PayloadCodec.choose(new byte[]{compression}));
+    }
 
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
+    public byte negotiateCompression(ClientInterface client, byte[] supported) {
+        byte compression = PayloadCodec.choose(supported);
+        SessionRegistry.Session session = sessions.get(client);
+        if (session != null) {
+            session.getSender().setCompression(compression);
+            System.out.println(session.getName() + " uses compression " + compression);
         }
-        syncBoardStatus(client);
+        return compression;
     }
 
-    public synchronized void partialDraw(ClientInterface client, Shape curDrawing, Color curColor, String curShape) {
-        try {
-            for (ClientInterface restClient : clients) {
-                if (client != null){
-                    // Sync the board status to the rest clients
-                    if (!restClient.getClientName().equals(client.getClientName())) {
-                        restClient.updatePartialDraw(curDrawing, curColor, curShape);
-                        System.out.println(restClient.getClientName() + " sync partial draw");
+    // Shapes that intersect an area of the board, in drawing order
+    public List<BoardOp> shapesIn(Rectangle area) {
+        return board.get().shapesIn(area);
+    }
+
+    // The server orders the shapes: whichever compare-and-set wins goes first, and a shape drawn over another
+    // one covers it on every board. Nothing a client sent is lost, it only decides where its shape goes.
+    public long drawShape(ClientInterface client, ShapeRecord record) {
+        SessionRegistry.Session author = sessions.get(client);
+        if (author != null) {
+            author.touch();
+        }
+        BoardState next = append(record, author == null ? managerName : author.getName());
+        // Only forward the new shape, the clients already have the others
+        boardChanged(next.bounds(next.size() - 1));
+        return next.getLastSeq();
+    }
+
+    public long[] submitBatch(ClientInterface client, ClientBatch batch) {
+        SessionRegistry.Session author = sessions.get(client);
+        if (author != null) {
+            author.touch();
+        }
+        String authorName = author == null ? managerName : author.getName();
+        long[] seqs = new long[batch.shapeCount()];
+        int shapes = 0;
+        Rectangle changed = null; // Area of the shapes not announced yet
+        for (int i = 0; i < batch.size(); i++) {
+            switch (batch.kind(i)) {
+                case ClientBatch.SHAPE:
+                    BoardState next = append(batch.record(i), authorName);
+                    seqs[shapes++] = next.getLastSeq();
+                    changed = PartialPreviews.union(changed, next.bounds(next.size() - 1));
+                    break;
+                case ClientBatch.PREVIEW:
+                    if (changed != null) {
+                        boardChanged(changed); // The shapes before it go out first, they replace the older preview
+                        changed = null;
                     }
-                } else { // server partial draw
-                    restClient.updatePartialDraw(curDrawing, curColor, curShape);
-                    System.out.println(restClient.getClientName() + " sync partial draw");
-                }
+                    partialDraw(client, batch.record(i));
+                    break;
+                case ClientBatch.CLIENT_LIST:
+                    syncClientList();
+                    break;
+                case ClientBatch.VIEWPORT:
+                    if (author != null) {
+                        author.getSender().setViewport(batch.viewport());
+                    }
+                    break;
             }
-            // client partial draw will update to server GUI
-            if (client != null){
-                serverGUI.updatePartialDraw(curDrawing, curColor, curShape);
+        }
+        // The clients get every shape of the batch in one update
+        if (changed != null) {
+            boardChanged(changed);
+        }
+        return seqs;
+    }
+
+    // Returns the version the shape was added in, as its last shape
+    private BoardState append(ShapeRecord record, String authorName) {
+        // Clients drawing at the same time retry instead of queueing on a lock
+        BoardState current, next;
+        do {
+            current = board.get();
+            next = current.append(record, authorName);
+        } while (next == null || !board.compareAndSet(current, next));
+        next.index();
+        return next;
+    }
+
+    // New shapes were published in the area changed, null if it is not known. Everything that pulls from the
+    // board is woken up, except clients looking elsewhere. The author gets its own shape back too, it only
+    // shows it as pending until then.
+    private void boardChanged(Rectangle changed) {
+        for (SessionRegistry.Session session : sessions.sessions()) {
+            session.getSender().sendBoard(changed);
+        }
+        if (journal != null) {
+            journal.changed();
+        }
+        // Manager's board is refreshed here as well, it does not keep its own copy
+        serverGUI.boardChanged();
+    }
+
+    public void partialDraw(ClientInterface client, ShapeRecord curDrawing) {
+        SessionRegistry.Session author = sessions.get(client);
+        if (client != null && author == null) {
+            return; // Left or kicked while still dragging
+        }
+        if (author != null) {
+            author.touch();
+        }
+        String authorName = author == null ? managerName : author.getName();
+        // Sync the partial drawing to the rest clients, server partial draw goes to all clients.
+        // Previews of the same author still queued for a client are replaced, not appended.
+        for (SessionRegistry.Session restClient : sessions.sessions()) {
+            if (restClient != author) {
+                restClient.getSender().sendPartial(authorName, curDrawing);
             }
-        } catch (RemoteException e) {
-            e.printStackTrace();
+        }
+        // client partial draw will update to server GUI
+        if (client != null){
+            serverGUI.updatePartialDraw(authorName, curDrawing);
         }
     }
 
-    public synchronized void leave(ClientInterface client) {
-        Iterator<ClientInterface> iterator = clients.iterator();
-        while (iterator.hasNext()) {
-            ClientInterface currentClient = iterator.next();
-            if (currentClient.equals(client)) {
-                try {
-                    clientList.remove(client.getClientName());
-                    iterator.remove(); // Safely remove the client from the list
-                    serverGUI.removeClient(client.getClientName());
-                    System.out.println(client.getClientName() + " left the server.");
-                    break;
-                } catch (RemoteException e) {
-                    System.out.println("Error on client leaving server.");
-                    e.printStackTrace();
-                }
+    // The author is gone, remove its unfinished drawing from every board
+    private void clearPartialDraw(String authorName) {
+        for (SessionRegistry.Session restClient : sessions.sessions()) {
+            restClient.getSender().sendPartial(authorName, null);
+        }
+        serverGUI.updatePartialDraw(authorName, null);
+    }
+
+    public boolean heartbeat(ClientInterface client) {
+        SessionRegistry.Session session = sessions.get(client);
+        if (session == null) {
+            return false;
+        }
+        session.touch();
+        return true;
+    }
+
+    public void leave(ClientInterface client) {
+        SessionRegistry.Session session = sessions.get(client);
+        if (session != null) {
+            remove(session, "left the server.");
+        } else {
+            syncClientList();
+        }
+    }
+
+    // For callers that must not remove a client themselves, e.g. under a sender's lock or on the push selector
+    void leaveLater(ClientInterface client) {
+        if (!reaper.isShutdown()) {
+            reaper.execute(() -> leave(client));
+        }
+    }
+
+    // Runs on the reaper thread, drops clients that crashed or lost their network
+    private void evictDead() {
+        long expired = System.currentTimeMillis() - HEARTBEAT_MS * LEASE_MISSED;
+        for (SessionRegistry.Session session : sessions.sessions()) {
+            if (session.getLastSeen() < expired) {
+                remove(session, "was evicted, no heartbeat for " + LEASE_MISSED * HEARTBEAT_MS + " ms.");
+            } else if (session.getSender().getFailures() >= MAX_SEND_FAILURES) {
+                remove(session, "was evicted, " + session.getSender().getFailures() + " updates in a row failed.");
             }
         }
+    }
+
+    // The client is gone, everyone else sees it leave the list and its unfinished drawing disappear
+    private void remove(SessionRegistry.Session session, String reason) {
+        if (sessions.remove(session)) {
+            session.getSender().close();
+            serverGUI.removeClient(session.getName());
+            clearPartialDraw(session.getName());
+            System.out.println(session.getName() + " " + reason);
+        }
         syncClientList();
     }
 
     public void closeServer() {
-        for (ClientInterface client : clients) {
+        for (SessionRegistry.Session session : sessions.sessions()) {
             try {
-                client.closeByServer();
+                session.getClient().closeByServer();
                 System.out.println("server remote object notified clients to close windows");
             } catch (RemoteException e) {
                 System.out.println("Error on closing clients window ");
                 e.printStackTrace();
             }
         }
+        admission.close();
+        reaper.shutdownNow();
+        if (pushServer != null) {
+            pushServer.close();
+        }
+        // Let a save in progress finish
+        ioExecutor.shutdown();
+        try {
+            ioExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (journal != null) {
+            journal.close(); // Write out the last batch
+        }
+        System.out.println("Compression: " + PayloadCodec.summary());
         System.exit(0);
     }
 
     public boolean kickout(String clientName) {
-        Iterator<ClientInterface> iterator = clients.iterator();
-        while (iterator.hasNext()) {
-            ClientInterface client = iterator.next();
-            try {
-                if (client.getClientName().equals(clientName)) {
-                    clientList.remove(client.getClientName());
-                    syncClientList(); // client.kicked() will wait until window close
-                    // So sync the new clientList first
-                    serverGUI.removeClient(client.getClientName());
-                    client.kicked();
-                    iterator.remove(); // Safely remove the client from the list
-                    System.out.println(client.getClientName() + " was kicked out.");
-                    return true;
-                }
-            } catch (RemoteException e) {
-                System.out.println("Error on kicking out a client.");
-                e.printStackTrace();
-            }
+        SessionRegistry.Session session = sessions.byName(clientName);
+        boolean kicked = session != null && sessions.remove(session);
+        if (kicked) {
+            serverGUI.removeClient(clientName);
+            session.getSender().sendKicked(); // The sender stops after delivering it
+            clearPartialDraw(clientName);
+            System.out.println(clientName + " was kicked out.");
         }
         syncClientList();
-        return false;
+        return kicked;
     }
 
-    public void syncClientList() {
-        for (ClientInterface client : clients) {
-            try {
-                client.updateClientsList(clientList);
-                System.out.println("server syncing client list");
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
+    // Swap in a new board and re-sync everyone to it
+    private void replaceBoard(BoardView newBoard) {
+        BoardState current, next;
+        do {
+            current = board.get();
+            next = BoardState.of(newBoard, current.getLastSeq() + 1);
+        } while (!board.compareAndSet(current, next));
+        resetClients();
+        if (journal != null) {
+            journal.changed();
         }
+        serverGUI.boardChanged();
     }
 
-    @SuppressWarnings("unchecked")
-    private void save(File saveDir) {
-        if (saveDir == null) {
-            saveDir = new File("default_whiteboard_save.json");
-        }
-        try (FileWriter writer = new FileWriter(saveDir)) {
-            JSONObject data = new JSONObject();
-            JSONArray shapesJson = new JSONArray();
-            for (Object shape : shapes) {
-                JSONObject shapeJson = new JSONObject();
-                if (shape instanceof Line2D.Float) {
-                    Line2D.Float line = (Line2D.Float) shape;
-                    shapeJson.put("type", "line");
-                    shapeJson.put("x1", line.x1);
-                    shapeJson.put("y1", line.y1);
-                    shapeJson.put("x2", line.x2);
-                    shapeJson.put("y2", line.y2);
-                } else if (shape instanceof Ellipse2D.Float) {
-                    Ellipse2D.Float ellipse = (Ellipse2D.Float) shape;
-                    shapeJson.put("type", "ellipse");
-                    shapeJson.put("x", ellipse.x);
-                    shapeJson.put("y", ellipse.y);
-                    shapeJson.put("width", ellipse.width);
-                    shapeJson.put("height", ellipse.height);
-                } else if (shape instanceof Rectangle) {
-                    Rectangle rectangle = (Rectangle) shape;
-                    shapeJson.put("type", "rectangle");
-                    shapeJson.put("x", rectangle.x);
-                    shapeJson.put("y", rectangle.y);
-                    shapeJson.put("width", rectangle.width);
-                    shapeJson.put("height", rectangle.height);
-                } else if (shape instanceof String) {
-                    String text = (String) shape;
-                    Point position = shapePositions.get(shapes.indexOf(text));
-                    shapeJson.put("type", "text");
-                    shapeJson.put("text", text);
-                    shapeJson.put("x", position.getX());
-                    shapeJson.put("y", position.getY());
-                }
-                shapesJson.add(shapeJson);
-            }
-
-            JSONArray colorsJson = new JSONArray();
-            for (Color color : colors) {
-                colorsJson.add(color.getRGB());
-            }
+    // Shapes parsed so far from a board being opened, appended as ordinary ops
+    private void appendLoaded(BoardModel loaded, int from, int to) {
+        BoardState current, next;
+        do {
+            current = board.get();
+            next = current.appendAll(loaded, from, to);
+        } while (!board.compareAndSet(current, next));
+        next.index();
+        boardChanged(null);
+    }
 
-            JSONArray shapePositionsJson = new JSONArray();
-            for (Point position : shapePositions) {
-                JSONObject positionJson = new JSONObject();
-                positionJson.put("x", position.x);
-                positionJson.put("y", position.y);
-                shapePositionsJson.add(positionJson);
-            }
+    // Board was replaced, every client is told and re-synced through its own queue
+    private void resetClients() {
+        for (SessionRegistry.Session session : sessions.sessions()) {
+            session.getSender().sendReset();
+        }
+    }
 
-            data.put("shapes", shapesJson);
-            data.put("colors", colorsJson);
-            data.put("shapePositions", shapePositionsJson);
+    public synchronized void syncClientList() {
+        List<String> clientList = sessions.names(); // Not changed afterwards, every sender shares it
+        for (SessionRegistry.Session session : sessions.sessions()) {
+            session.getSender().sendClientList(clientList);
+        }
+    }
 
-            writer.write(data.toJSONString());
+    // Runs on the I/O thread against one board version, drawing goes on while the file is written
+    private void save(File saveDir, BoardView snapshot) {
+        String task = "Saving " + saveDir.getName();
+        serverGUI.showFileProgress(task, 0);
+        try {
+            if (BoardSnapshot.isSnapshot(saveDir)) {
+                BoardSnapshot.write(snapshot, saveDir);
+            } else {
+                BoardJson.write(snapshot, saveDir, fraction -> serverGUI.showFileProgress(task, fraction));
+            }
+            serverGUI.fileDone("Saved " + snapshot.size() + " shapes to " + saveDir.getName());
         } catch (IOException e) {
             e.printStackTrace();
+            serverGUI.fileDone("Could not save " + saveDir.getName());
         }
     }
 
+    private void saveLater(File saveDir) {
+        BoardState snapshot = board.get();
+        ioExecutor.execute(() -> save(saveDir, snapshot));
+    }
+
     private void saveAs() {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogType(JFileChooser.SAVE_DIALOG);
@@ -308,7 +439,7 @@ public class ServerRemoteObj extends UnicastRemoteObject implements ServerInterf
             File selectedFile = fileChooser.getSelectedFile();
 
             // Save your data to the selected file
-            save(selectedFile);
+            saveLater(selectedFile);
         }
     }
 
@@ -321,88 +452,7 @@ public class ServerRemoteObj extends UnicastRemoteObject implements ServerInterf
             File openDir = fileChooser.getSelectedFile();
 
             if (openDir != null) {
-                // Load the data from the selected file
-                try {
-                    try (FileReader reader = new FileReader(openDir)) {
-                        JSONParser parser = new JSONParser();
-                        JSONObject data = (JSONObject) parser.parse(reader);
-
-                        // Clear the current board
-                        shapes.clear();
-                        colors.clear();
-                        shapePositions.clear();
-
-                        // Parse the shapes, colors, and shapePositions lists from file
-                        JSONArray shapesJson = (JSONArray) data.get("shapes");
-                        JSONArray colorsJson = (JSONArray) data.get("colors");
-                        JSONArray shapePositionsJson = (JSONArray) data.get("shapePositions");
-
-                        for (Object shape : shapesJson) {
-                            JSONObject shapeObj = (JSONObject) shape;
-                            String type = (String) shapeObj.get("type");
-                            if ("line".equals(type)) {
-                                Line2D.Float line = new Line2D.Float(
-                                        ((Number) shapeObj.get("x1")).floatValue(),
-                                        ((Number) shapeObj.get("y1")).floatValue(),
-                                        ((Number) shapeObj.get("x2")).floatValue(),
-                                        ((Number) shapeObj.get("y2")).floatValue()
-                                );
-                                shapes.add(line);
-                            } else if ("ellipse".equals(type)) {
-                                Ellipse2D.Float ellipse = new Ellipse2D.Float(
-                                        ((Number) shapeObj.get("x")).floatValue(),
-                                        ((Number) shapeObj.get("y")).floatValue(),
-                                        ((Number) shapeObj.get("width")).floatValue(),
-                                        ((Number) shapeObj.get("height")).floatValue()
-                                );
-                                shapes.add(ellipse);
-                            } else if ("rectangle".equals(type)) {
-                                Rectangle rectangle = new Rectangle(
-                                        ((Number) shapeObj.get("x")).intValue(),
-                                        ((Number) shapeObj.get("y")).intValue(),
-                                        ((Number) shapeObj.get("width")).intValue(),
-                                        ((Number) shapeObj.get("height")).intValue()
-                                );
-                                shapes.add(rectangle);
-                            } else if ("text".equals(type)) {
-                                String text = (String) shapeObj.get("text");
-                                int x = ((Number) shapeObj.get("x")).intValue();
-                                int y = ((Number) shapeObj.get("y")).intValue();
-                                shapes.add(text);
-                                shapePositions.add(new Point(x, y));
-                            } else {
-                                System.out.println("Error on opening board.");
-                            }
-                        }
-
-                        for (Object color : colorsJson) {
-                            colors.add(new Color(((Long) color).intValue()));
-                        }
-
-                        for (Object position : shapePositionsJson) {
-                            JSONObject positionJson = (JSONObject) position;
-                            int x = ((Long) positionJson.get("x")).intValue();
-                            int y = ((Long) positionJson.get("y")).intValue();
-                            shapePositions.add(new Point(x, y));
-                        }
-                    }
-                    System.out.println("Parsed board from saved file");
-
-                    // Update saved board to all users
-                    for (ClientInterface client : clients) {
-                        try {
-                            client.clear();
-                            client.updateBoardStatus(shapes, colors, shapePositions);
-                        } catch (RemoteException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                    System.out.println("update to client");
-                    serverGUI.updateBoardStatus(shapes, colors, shapePositions);
-                    System.out.println("Server board is updated");
-                } catch (IOException | ParseException e) {
-                    e.printStackTrace();
-                }
+                ioExecutor.execute(() -> open(openDir));
             } else {
                 // Show an error message or handle the null file case
                 System.err.println("No file was selected.");
@@ -410,10 +460,40 @@ public class ServerRemoteObj extends UnicastRemoteObject implements ServerInterf
         }
     }
 
+    // Runs on the I/O thread, the loaded board reaches the clients through their senders like any other ops
+    private void open(File openDir) {
+        String task = "Opening " + openDir.getName();
+        serverGUI.showFileProgress(task, 0);
+        if (BoardSnapshot.isSnapshot(openDir)) {
+            // Binary snapshots load in one go, the records are copied out of the mapped file
+            try {
+                BoardModel loaded = BoardSnapshot.read(openDir);
+                replaceBoard(loaded);
+                serverGUI.fileDone("Opened " + loaded.size() + " shapes from " + openDir.getName());
+            } catch (IOException e) {
+                e.printStackTrace();
+                serverGUI.fileDone("Could not open " + openDir.getName());
+            }
+            return;
+        }
+        // Load the data from the selected file. The board is emptied first and the shapes are
+        // broadcast in chunks as they are parsed, clients do not wait for the whole file
+        replaceBoard(new BoardModel());
+        try {
+            BoardModel loaded = BoardJson.read(openDir, this::appendLoaded, LOAD_CHUNK,
+                    fraction -> serverGUI.showFileProgress(task, fraction));
+            System.out.println("Parsed " + loaded.size() + " shapes from saved file");
+            serverGUI.fileDone("Opened " + loaded.size() + " shapes from " + openDir.getName());
+        } catch (IOException e) {
+            e.printStackTrace();
+            serverGUI.fileDone("Could not open all of " + openDir.getName());
+        }
+    }
+
     public void fileSelect(String option) {
         switch (option) {
             case "Save":
-                save(null);
+                saveLater(new File("default_whiteboard_save.json"));
                 break;
             case "Save As":
                 saveAs();
@@ -422,17 +502,11 @@ public class ServerRemoteObj extends UnicastRemoteObject implements ServerInterf
                 open();
                 break;
             case "New":
-                shapes.clear();
-                colors.clear();
-                shapePositions.clear();
-                for (ClientInterface client : clients) {
-                    try {
-                        client.clear();
-                    } catch (RemoteException e) {
-                        e.printStackTrace();
-                    }
-                }
-                serverGUI.clear();
+                // Queued behind any open still loading, so its shapes do not land on the new board
+                ioExecutor.execute(() -> {
+                    replaceBoard(new BoardModel());
+                    serverGUI.clear(); // Also drops the previews still shown
+                });
                 break;
             case "Close":
                 closeServer();
@@ -0,0 +1,116 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Clients that joined, each under a session id the server hands out at join. Sessions are found by stub
+// or name with a local lookup, so broadcasts, kicks and leaves never have to ask a client who it is.
+// Lookups do not lock, only adding and removing a session does.
+public class SessionRegistry {
+    public static final class Session {
+        private final long id;
+        private final String name;
+        private final ClientInterface client;
+        private final ClientSender sender; // Outbound queue
+        private volatile long lastSeen = System.currentTimeMillis(); // Last call from the client, for its lease
+
+        private Session(long id, String name, ClientInterface client, ClientSender sender) {
+            this.id = id;
+            this.name = name;
+            this.client = client;
+            this.sender = sender;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ClientInterface getClient() {
+            return client;
+        }
+
+        public ClientSender getSender() {
+            return sender;
+        }
+
+        // The client called in, its lease is renewed
+        public void touch() {
+            lastSeen = System.currentTimeMillis();
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+    }
+
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final Map<Long, Session> byId = new ConcurrentHashMap<>();
+    private final Map<ClientInterface, Session> byClient = new ConcurrentHashMap<>();
+    private final Map<String, Session> byName = new ConcurrentHashMap<>();
+    // Names in joining order, replaced on every change so readers can share it
+    private volatile List<String> names = Collections.emptyList();
+
+    public long newId() {
+        return nextId.getAndIncrement();
+    }
+
+    // Returns null if the name is taken
+    public synchronized Session add(long id, String name, ClientInterface client, ClientSender sender) {
+        if (byName.containsKey(name)) {
+            return null;
+        }
+        Session session = new Session(id, name, client, sender);
+        byName.put(name, session);
+        byClient.put(client, session);
+        byId.put(id, session);
+        List<String> updated = new ArrayList<>(names);
+        updated.add(name);
+        names = Collections.unmodifiableList(updated);
+        return session;
+    }
+
+    // False if the session was already removed, e.g. kicked out while leaving
+    public synchronized boolean remove(Session session) {
+        if (!byId.remove(session.getId(), session)) {
+            return false;
+        }
+        byName.remove(session.getName(), session);
+        byClient.remove(session.getClient(), session);
+        List<String> updated = new ArrayList<>(names);
+        updated.remove(session.getName());
+        names = Collections.unmodifiableList(updated);
+        return true;
+    }
+
+    // Null for the manager, who calls without a stub
+    public Session get(ClientInterface client) {
+        return client == null ? null : byClient.get(client);
+    }
+
+    public Session byName(String name) {
+        return byName.get(name);
+    }
+
+    public boolean contains(String name) {
+        return byName.containsKey(name);
+    }
+
+    public Collection<Session> sessions() {
+        return byId.values();
+    }
+
+    public List<String> names() {
+        return names;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+}
@@ -0,0 +1,106 @@
+import java.awt.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Uniform grid over the board, each cell lists the indices of the shapes whose bounds touch it.
+// Finding the shapes in an area only visits the cells it covers instead of the whole board.
+public class ShapeGrid {
+    private static final int CELL_SIZE = 64;
+    // Shapes covering more cells than this are kept in one list checked by every query
+    private static final int MAX_CELLS_PER_SHAPE = 256;
+
+    private static class Cell {
+        int[] indices = new int[4];
+        int size = 0;
+
+        void add(int index) {
+            if (size == indices.length) {
+                indices = Arrays.copyOf(indices, size * 2);
+            }
+            indices[size++] = index;
+        }
+    }
+
+    private final Map<Long, Cell> cells = new HashMap<>();
+    private final Cell oversized = new Cell();
+    private final Map<Integer, Rectangle> oversizedBounds = new HashMap<>();
+
+    public void add(int index, Rectangle bounds) {
+        int minX = Math.floorDiv(bounds.x, CELL_SIZE);
+        int minY = Math.floorDiv(bounds.y, CELL_SIZE);
+        int maxX = Math.floorDiv(bounds.x + bounds.width, CELL_SIZE);
+        int maxY = Math.floorDiv(bounds.y + bounds.height, CELL_SIZE);
+        if ((long) (maxX - minX + 1) * (maxY - minY + 1) > MAX_CELLS_PER_SHAPE) {
+            oversized.add(index);
+            oversizedBounds.put(index, new Rectangle(bounds));
+            return;
+        }
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cy = minY; cy <= maxY; cy++) {
+                cells.computeIfAbsent(key(cx, cy), k -> new Cell()).add(index);
+            }
+        }
+    }
+
+    public void clear() {
+        cells.clear();
+        oversized.size = 0;
+        oversizedBounds.clear();
+    }
+
+    // Indices of the shapes that may intersect the area, ascending so they paint in board order
+    public int[] query(Rectangle area) {
+        // In long, an area sent by a client can be as big as an int allows
+        long minX = Math.floorDiv((long) area.x, CELL_SIZE);
+        long minY = Math.floorDiv((long) area.y, CELL_SIZE);
+        long maxX = Math.floorDiv((long) area.x + area.width, CELL_SIZE);
+        long maxY = Math.floorDiv((long) area.y + area.height, CELL_SIZE);
+        Cell found = new Cell();
+        if ((maxX - minX + 1) * (maxY - minY + 1) > cells.size()) {
+            // More cells in the area than cells with shapes, only visit those
+            for (Map.Entry<Long, Cell> entry : cells.entrySet()) {
+                long key = entry.getKey();
+                int cx = (int) (key >> 32);
+                int cy = (int) key;
+                if (cx >= minX && cx <= maxX && cy >= minY && cy <= maxY) {
+                    addAll(found, entry.getValue());
+                }
+            }
+        } else {
+            for (long cx = minX; cx <= maxX; cx++) {
+                for (long cy = minY; cy <= maxY; cy++) {
+                    Cell cell = cells.get(key((int) cx, (int) cy));
+                    if (cell != null) {
+                        addAll(found, cell);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < oversized.size; i++) {
+            if (oversizedBounds.get(oversized.indices[i]).intersects(area)) {
+                found.add(oversized.indices[i]);
+            }
+        }
+        // A shape is listed once per cell it touches
+        int[] indices = Arrays.copyOf(found.indices, found.size);
+        Arrays.sort(indices);
+        int unique = 0;
+        for (int i = 0; i < indices.length; i++) {
+            if (unique == 0 || indices[i] != indices[unique - 1]) {
+                indices[unique++] = indices[i];
+            }
+        }
+        return Arrays.copyOf(indices, unique);
+    }
+
+    private static void addAll(Cell found, Cell cell) {
+        for (int i = 0; i < cell.size; i++) {
+            found.add(cell.indices[i]);
+        }
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+}
@@ -0,0 +1,162 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.io.*;
+
+// One board element as it is sent between server and clients: a type tag, four packed coordinates,
+// the point the drawing started from, an RGB colour and the string of a text box.
+// Encoded by hand instead of serializing AWT objects, a stroke takes about 30 bytes.
+public final class ShapeRecord implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    public static final byte LINE = 1;
+    public static final byte ELLIPSE = 2;
+    public static final byte RECTANGLE = 3;
+    public static final byte TEXT = 4;
+
+    private byte type;
+    // Line: x1, y1, x2, y2. Ellipse and rectangle: x, y, width, height. Unused for text.
+    private float a, b, c, d;
+    private int x, y; // Start position of the drawing, or baseline of the text
+    private int rgb;
+    private String text;
+
+    public ShapeRecord() {
+        // Needed by Externalizable
+    }
+
+    public ShapeRecord(byte type, float a, float b, float c, float d, int x, int y, int rgb, String text) {
+        this.type = type;
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.d = d;
+        this.x = x;
+        this.y = y;
+        this.rgb = rgb;
+        this.text = text;
+    }
+
+    // Shape is one of the shapes the white board draws, or a String for a text box
+    public static ShapeRecord of(Object shape, Color color, Point position) {
+        int x = position == null ? 0 : position.x;
+        int y = position == null ? 0 : position.y;
+        int rgb = color.getRGB();
+        if (shape instanceof Line2D.Float) {
+            Line2D.Float line = (Line2D.Float) shape;
+            return new ShapeRecord(LINE, line.x1, line.y1, line.x2, line.y2, x, y, rgb, null);
+        } else if (shape instanceof Ellipse2D.Float) {
+            Ellipse2D.Float ellipse = (Ellipse2D.Float) shape;
+            return new ShapeRecord(ELLIPSE, ellipse.x, ellipse.y, ellipse.width, ellipse.height, x, y, rgb, null);
+        } else if (shape instanceof Rectangle) {
+            Rectangle rectangle = (Rectangle) shape;
+            return new ShapeRecord(RECTANGLE, rectangle.x, rectangle.y, rectangle.width, rectangle.height, x, y, rgb, null);
+        } else if (shape instanceof String) {
+            return new ShapeRecord(TEXT, 0, 0, 0, 0, x, y, rgb, (String) shape);
+        }
+        throw new IllegalArgumentException("Unsupported shape " + shape);
+    }
+
+    // Back to the object the white board paints
+    public Object toShape() {
+        switch (type) {
+            case LINE:
+                return new Line2D.Float(a, b, c, d);
+            case ELLIPSE:
+                return new Ellipse2D.Float(a, b, c, d);
+            case RECTANGLE:
+                return new Rectangle((int) a, (int) b, (int) c, (int) d);
+            default:
+                return text;
+        }
+    }
+
+    public Color color() {
+        return new Color(rgb, true);
+    }
+
+    public Point position() {
+        return new Point(x, y);
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public float getA() {
+        return a;
+    }
+
+    public float getB() {
+        return b;
+    }
+
+    public float getC() {
+        return c;
+    }
+
+    public float getD() {
+        return d;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getRgb() {
+        return rgb;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(type);
+        if (type == TEXT) {
+            out.writeUTF(text);
+        } else {
+            out.writeFloat(a);
+            out.writeFloat(b);
+            out.writeFloat(c);
+            out.writeFloat(d);
+        }
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeInt(rgb);
+    }
+
+    public static ShapeRecord read(DataInput in) throws IOException {
+        ShapeRecord record = new ShapeRecord();
+        record.readFields(in);
+        return record;
+    }
+
+    private void readFields(DataInput in) throws IOException {
+        type = in.readByte();
+        if (type == TEXT) {
+            text = in.readUTF();
+        } else {
+            a = in.readFloat();
+            b = in.readFloat();
+            c = in.readFloat();
+            d = in.readFloat();
+        }
+        x = in.readInt();
+        y = in.readInt();
+        rgb = in.readInt();
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        write(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFields(in);
+    }
+}
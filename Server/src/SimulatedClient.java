@@ -0,0 +1,264 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.io.*;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// A virtual user for the LoadGenerator: a ClientInterface without a window. It joins, draws, previews and
+// rejoins through the server's RMI stub like a real client and takes its updates as RMI callbacks.
+// The start point of a stroke is not drawn, so it carries the time the stroke was sent (in microseconds,
+// high and low half) and every other user measures how long the stroke took to reach it.
+// A user does one thing at a time: an action that comes up while the last one is still running is skipped,
+// like a real user still waiting for the server.
+public class SimulatedClient extends UnicastRemoteObject implements ClientInterface {
+    private static final long serialVersionUID = 1L;
+    private static final int BOARD_SIZE = 2000;
+
+    private final LoadGenerator load;
+    private final ServerInterface server;
+    private final String name;
+    private final Random random;
+    private volatile boolean joined = false;
+    private final Object joinLock = new Object();
+    private int joinResult = -1;
+    private final AtomicBoolean busy = new AtomicBoolean(false); // An action of this user is running
+    // Only used by the action running, the busy flag hands them from one to the next
+    private Rectangle dragging; // Shape being previewed, finished by the next draw
+
+    public SimulatedClient(LoadGenerator load, ServerInterface server, String name, long seed)
+            throws RemoteException {
+        super();
+        this.load = load;
+        this.server = server;
+        this.name = name;
+        this.random = new Random(seed);
+    }
+
+    public String getClientName() {
+        return name;
+    }
+
+    public void setClientName(String username) {
+        // The name is fixed
+    }
+
+    public void joinResult(int result) {
+        synchronized (joinLock) {
+            joinResult = result;
+            joinLock.notifyAll();
+        }
+    }
+
+    public void closeByServer() {
+        joined = false;
+    }
+
+    public boolean isJoined() {
+        return joined;
+    }
+
+    public void join() {
+        exclusive(this::joinNow);
+    }
+
+    private void joinNow() {
+        try {
+            int result = server.join(name, this, -1);
+            if (result == ServerInterface.PENDING) {
+                result = awaitJoinResult();
+            }
+            joined = result == ServerInterface.JOINED;
+            if (!joined) {
+                load.refused.increment();
+            }
+        } catch (RemoteException e) {
+            load.errors.increment();
+        }
+    }
+
+    private int awaitJoinResult() {
+        synchronized (joinLock) {
+            long deadline = System.currentTimeMillis() + 60000;
+            try {
+                while (joinResult < 0 && System.currentTimeMillis() < deadline) {
+                    joinLock.wait(1000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            int result = joinResult < 0 ? ServerInterface.REFUSED : joinResult;
+            joinResult = -1;
+            return result;
+        }
+    }
+
+    public void leave() {
+        exclusive(this::leaveNow);
+    }
+
+    private void leaveNow() {
+        joined = false;
+        try {
+            server.leave(this);
+        } catch (RemoteException e) {
+            load.errors.increment();
+        }
+    }
+
+    public void heartbeat() {
+        exclusive(() -> {
+            if (!joined) {
+                return;
+            }
+            try {
+                if (!server.heartbeat(this)) {
+                    joined = false; // Evicted, come back like a reconnecting user
+                    load.evicted.increment();
+                    joinNow();
+                }
+            } catch (RemoteException e) {
+                load.errors.increment();
+            }
+        });
+    }
+
+    // A finished shape, the preview dragged so far if there is one
+    public void draw() {
+        exclusive(this::drawNow);
+    }
+
+    private void drawNow() {
+        Rectangle shape = dragging != null ? dragging : randomArea();
+        dragging = null;
+        try {
+            server.drawShape(this, stamp(randomShape(shape)));
+            load.draws.increment();
+        } catch (RemoteException e) {
+            load.errors.increment();
+        }
+    }
+
+    // The drag goes on, the shape grows a little
+    public void preview() {
+        exclusive(this::previewNow);
+    }
+
+    private void previewNow() {
+        if (dragging == null) {
+            dragging = randomArea();
+        } else {
+            dragging.width += random.nextInt(20);
+            dragging.height += random.nextInt(20);
+        }
+        try {
+            server.partialDraw(this, stamp(ShapeRecord.of(dragging, Color.BLUE, null)));
+            load.previews.increment();
+        } catch (RemoteException e) {
+            load.errors.increment();
+        }
+    }
+
+    // Leave and join again, like a user reconnecting
+    public void rejoin() {
+        exclusive(() -> {
+            leaveNow();
+            joinNow();
+            if (joined) {
+                load.rejoins.increment();
+            }
+        });
+    }
+
+    private void exclusive(Runnable action) {
+        if (busy.compareAndSet(false, true)) {
+            try {
+                action.run();
+            } finally {
+                busy.set(false);
+            }
+        }
+    }
+
+    private Rectangle randomArea() {
+        return new Rectangle(random.nextInt(BOARD_SIZE), random.nextInt(BOARD_SIZE),
+                1 + random.nextInt(200), 1 + random.nextInt(200));
+    }
+
+    private ShapeRecord randomShape(Rectangle area) {
+        Color color = new Color(random.nextInt(0xffffff));
+        switch (random.nextInt(3)) {
+            case 0:
+                return ShapeRecord.of(new Line2D.Float(area.x, area.y, area.x + area.width, area.y + area.height),
+                        color, null);
+            case 1:
+                return ShapeRecord.of(new Ellipse2D.Float(area.x, area.y, area.width, area.height), color, null);
+            default:
+                return ShapeRecord.of(area, color, null);
+        }
+    }
+
+    private static ShapeRecord stamp(ShapeRecord shape) {
+        long sent = System.nanoTime() / 1000;
+        return new ShapeRecord(shape.getType(), shape.getA(), shape.getB(), shape.getC(), shape.getD(),
+                (int) (sent >>> 32), (int) sent, shape.getRgb(), shape.getText());
+    }
+
+    private static long sentAt(ShapeRecord shape) {
+        return ((long) shape.getX() << 32) | (shape.getY() & 0xffffffffL);
+    }
+
+    // Same frames as ClientObj gets, only timed and counted
+    public void applyUpdates(byte[] frames) {
+        long now = System.nanoTime() / 1000;
+        try {
+            readFrames(new DataInputStream(new ByteArrayInputStream(frames)), now);
+        } catch (IOException e) {
+            load.errors.increment();
+        }
+    }
+
+    private void readFrames(DataInputStream in, long now) throws IOException {
+        while (in.available() > 0) {
+            byte[] frame = new byte[in.readInt()];
+            in.readFully(frame);
+            DataInputStream payload = new DataInputStream(new ByteArrayInputStream(frame));
+            switch (payload.readByte()) {
+                case PushFrame.COMPRESSED:
+                    byte codec = payload.readByte();
+                    int rawLength = payload.readInt();
+                    byte[] inflated = PayloadCodec.inflate(codec, rawLength, payload.readAllBytes());
+                    readFrames(new DataInputStream(new ByteArrayInputStream(inflated)), now);
+                    break;
+                case PushFrame.OP:
+                    received(BoardOp.read(payload), now);
+                    break;
+                case PushFrame.SYNC:
+                    BoardSync sync = BoardSync.read(payload);
+                    if (!sync.isReset()) { // A reset is the board this user joined to, not a fan-out
+                        for (BoardOp op : sync.getOps()) {
+                            received(op, now);
+                        }
+                    }
+                    break;
+                case PushFrame.PARTIAL:
+                    String author = payload.readUTF();
+                    if (payload.readBoolean() && !author.equals(name)) {
+                        load.previewLatency.record(now - sentAt(ShapeRecord.read(payload)));
+                    }
+                    load.delivered.increment();
+                    break;
+                default:
+                    break; // User list, clear, kicked
+            }
+        }
+    }
+
+    private void received(BoardOp op, long now) {
+        load.delivered.increment();
+        if (!name.equals(op.getAuthor())) {
+            load.drawLatency.record(now - sentAt(op.getShape()));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.Random;
+
+// Boards of random shapes for the benchmarks, always the same ones for a given size
+public final class BenchmarkBoards {
+    public static final int SIZE = 2000; // The shapes are spread over a board this wide and high
+
+    private BenchmarkBoards() {
+    }
+
+    public static BoardModel random(int shapes) {
+        Random random = new Random(shapes);
+        BoardModel board = new BoardModel(shapes);
+        for (int i = 0; i < shapes; i++) {
+            board.add(shape(random), "user" + random.nextInt(50));
+        }
+        return board;
+    }
+
+    // Mostly strokes, one in ten is a text box
+    public static ShapeRecord shape(Random random) {
+        int x = random.nextInt(SIZE);
+        int y = random.nextInt(SIZE);
+        int width = 1 + random.nextInt(200);
+        int height = 1 + random.nextInt(200);
+        int rgb = 0xff000000 | random.nextInt(0xffffff);
+        switch (random.nextInt(10)) {
+            case 0:
+            case 1:
+            case 2:
+                return new ShapeRecord(ShapeRecord.LINE, x, y, x + width, y + height, x, y, rgb, null);
+            case 3:
+            case 4:
+            case 5:
+                return new ShapeRecord(ShapeRecord.ELLIPSE, x, y, width, height, x, y, rgb, null);
+            case 9:
+                return new ShapeRecord(ShapeRecord.TEXT, 0, 0, 0, 0, x, y, rgb, "note " + random.nextInt(1000));
+            default:
+                return new ShapeRecord(ShapeRecord.RECTANGLE, x, y, width, height, x, y, rgb, null);
+        }
+    }
+}
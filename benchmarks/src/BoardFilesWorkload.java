@@ -0,0 +1,33 @@
+import bench.Workloads;
+
+import java.io.File;
+import java.io.IOException;
+
+public class BoardFilesWorkload implements Workloads.BoardFiles {
+    private BoardModel board;
+    private File file;
+
+    public void setUp(int shapes, String format, File dir) throws IOException {
+        board = BenchmarkBoards.random(shapes);
+        file = new File(dir, "board" + ("snapshot".equals(format) ? BoardSnapshot.EXTENSION : ".json"));
+        save(); // Something to open
+    }
+
+    public void save() throws IOException {
+        if (BoardSnapshot.isSnapshot(file)) {
+            BoardSnapshot.write(board, file);
+        } else {
+            BoardJson.write(board, file, fraction -> {});
+        }
+    }
+
+    public int open() throws IOException {
+        BoardModel loaded = BoardSnapshot.isSnapshot(file) ? BoardSnapshot.read(file)
+                : BoardJson.read(file, (parsed, from, to) -> {}, 4096, fraction -> {});
+        return loaded.size();
+    }
+
+    public void tearDown() {
+        file.delete();
+    }
+}
@@ -0,0 +1,128 @@
+import bench.Workloads;
+
+import java.awt.*;
+import java.io.*;
+import java.rmi.RemoteException;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+
+// An in-process server with joined clients, every call and callback goes through RMI stubs over loopback
+public class FanOutWorkload implements Workloads.FanOut {
+    private final List<Receiver> receivers = new ArrayList<>();
+    private final Object arrived = new Object(); // Notified whenever a client got new ops
+    private ServerRemoteObj boardServer;
+    private ServerInterface server;
+    private final ShapeRecord shape = ShapeRecord.of(new Rectangle(100, 100, 300, 200), Color.BLUE, null);
+
+    // Client that only keeps track of the latest op it got
+    private class Receiver extends UnicastRemoteObject implements ClientInterface {
+        private static final long serialVersionUID = 1L;
+        private final String name;
+        private volatile long lastSeq = -1;
+
+        Receiver(String name) throws RemoteException {
+            super();
+            this.name = name;
+        }
+
+        public void setClientName(String username) {
+        }
+
+        public String getClientName() {
+            return name;
+        }
+
+        public void joinResult(int result) {
+        }
+
+        public void closeByServer() {
+        }
+
+        public void applyUpdates(byte[] frames) {
+            try {
+                read(new DataInputStream(new ByteArrayInputStream(frames)));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            synchronized (arrived) {
+                arrived.notifyAll();
+            }
+        }
+
+        private void read(DataInputStream in) throws IOException {
+            while (in.available() > 0) {
+                byte[] frame = new byte[in.readInt()];
+                in.readFully(frame);
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(frame));
+                switch (payload.readByte()) {
+                    case PushFrame.COMPRESSED:
+                        byte codec = payload.readByte();
+                        int rawLength = payload.readInt();
+                        read(new DataInputStream(new ByteArrayInputStream(
+                                PayloadCodec.inflate(codec, rawLength, payload.readAllBytes()))));
+                        break;
+                    case PushFrame.OP:
+                        lastSeq = Math.max(lastSeq, BoardOp.read(payload).getSeq());
+                        break;
+                    case PushFrame.SYNC:
+                        lastSeq = Math.max(lastSeq, BoardSync.read(payload).getLastSeq());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    public void setUp(int clients) throws Exception {
+        setDefault("whiteboard.autoApprove", ".*");
+        setDefault("whiteboard.journal", "false");
+        setDefault("whiteboard.heartbeatMs", "3600000"); // These clients send no heartbeats
+        boardServer = new ServerRemoteObj(new HeadlessServerGUI());
+        boardServer.setManagerName("manager");
+        server = (ServerInterface) RemoteObject.toStub(boardServer);
+        for (int i = 0; i < clients; i++) {
+            Receiver receiver = new Receiver("client" + i);
+            if (server.join(receiver.name, receiver, -1) != ServerInterface.JOINED) {
+                throw new IllegalStateException(receiver.name + " could not join");
+            }
+            receivers.add(receiver);
+        }
+    }
+
+    // The first client draws, every client including it gets the shape back
+    public void drawAndWait() throws Exception {
+        long seq = server.drawShape(receivers.get(0), shape);
+        synchronized (arrived) {
+            while (!allReached(seq)) {
+                arrived.wait();
+            }
+        }
+    }
+
+    private boolean allReached(long seq) {
+        for (Receiver receiver : receivers) {
+            if (receiver.lastSeq < seq) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void tearDown() throws Exception {
+        for (Receiver receiver : receivers) {
+            server.leave(receiver);
+            UnicastRemoteObject.unexportObject(receiver, true);
+        }
+        receivers.clear();
+        UnicastRemoteObject.unexportObject(boardServer, true);
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+import bench.Workloads;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+public class RenderWorkload implements Workloads.Render {
+    private final BoardRaster raster = new BoardRaster();
+    private final Random random = new Random(0);
+    private BoardModel initial;
+    private BoardModel board;
+    private ShapeGrid grid;
+    private JPanel panel; // Only gives the raster its size, font and background
+    private Graphics2D screen; // Stands in for the Graphics of paintComponent
+
+    public void setUp(int shapes, int width, int height) {
+        initial = BenchmarkBoards.random(shapes);
+        panel = new JPanel();
+        panel.setSize(width, height);
+        panel.setBackground(Color.WHITE);
+        screen = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB).createGraphics();
+        reset();
+    }
+
+    public void reset() {
+        board = initial.copy();
+        grid = new ShapeGrid();
+        for (int i = 0; i < board.size(); i++) {
+            grid.add(i, board.bounds(i));
+        }
+        raster.invalidate();
+        raster.paint(screen, panel, grid, board);
+    }
+
+    public void paintCached() {
+        raster.paint(screen, panel, grid, board);
+    }
+
+    public void paintFull() {
+        raster.invalidate();
+        raster.paint(screen, panel, grid, board);
+    }
+
+    public void paintAppended() {
+        int i = board.add(BenchmarkBoards.shape(random), "user");
+        grid.add(i, board.bounds(i));
+        raster.paint(screen, panel, grid, board);
+    }
+
+    public void paintUncached() {
+        screen.setColor(panel.getBackground());
+        screen.fillRect(0, 0, panel.getWidth(), panel.getHeight());
+        for (int i = 0; i < board.size(); i++) {
+            board.draw(screen, i);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import bench.Workloads;
+
+import java.io.*;
+import java.util.ArrayList;
+
+public class SyncWorkload implements Workloads.Sync {
+    private BoardSync sync;
+
+    public void setUp(int shapes) {
+        BoardModel board = BenchmarkBoards.random(shapes);
+        ArrayList<BoardOp> ops = new ArrayList<>(shapes);
+        for (int i = 0; i < shapes; i++) {
+            ops.add(new BoardOp(i + 1, board.author(i), board.get(i)));
+        }
+        sync = new BoardSync(true, shapes, ops); // The whole board, as a joining client gets it
+    }
+
+    public byte[] frame() {
+        return PushFrame.sync(sync);
+    }
+
+    public byte[] compressedFrame() {
+        return PayloadCodec.compress(PushFrame.sync(sync), PayloadCodec.DEFLATE);
+    }
+
+    public byte[] rmiSerialized() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(sync);
+        }
+        return bytes.toByteArray();
+    }
+
+    public int readFrame(byte[] frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        in.readInt(); // Length
+        in.readByte(); // Type
+        return BoardSync.read(in).getOps().size();
+    }
+}
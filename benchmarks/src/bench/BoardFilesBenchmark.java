@@ -0,0 +1,49 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+// Save and open as the server runs them on its I/O thread, JSON and the binary snapshot
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+public class BoardFilesBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int shapes;
+
+    @Param({"json", "snapshot"})
+    public String format;
+
+    private Workloads.BoardFiles files;
+    private File dir;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException, IOException {
+        dir = Files.createTempDirectory("whiteboard-bench").toFile();
+        files = Workloads.create("BoardFilesWorkload", Workloads.BoardFiles.class);
+        files.setUp(shapes, format, dir);
+    }
+
+    @TearDown
+    public void tearDown() {
+        files.tearDown();
+        dir.delete();
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        files.save();
+    }
+
+    @Benchmark
+    public int open() throws IOException {
+        return files.open();
+    }
+}
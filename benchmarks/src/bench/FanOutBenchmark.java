@@ -0,0 +1,36 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Time from drawShape() until every joined client got the shape, over loopback RMI.
+// Sampled, so the report has percentiles as well as the mean.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class FanOutBenchmark {
+    @Param({"10", "50"})
+    public int clients;
+
+    private Workloads.FanOut fanOut;
+
+    @Setup
+    public void setUp() throws Exception {
+        fanOut = Workloads.create("FanOutWorkload", Workloads.FanOut.class);
+        fanOut.setUp(clients);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        fanOut.tearDown();
+    }
+
+    @Benchmark
+    public void drawAndWait() throws Exception {
+        fanOut.drawAndWait();
+    }
+}
@@ -0,0 +1,51 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// What paintComponent costs on an offscreen Graphics2D, with and without the BoardRaster image
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class RenderBenchmark {
+    @Param({"1000", "100000"})
+    public int shapes;
+
+    private Workloads.Render render;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        render = Workloads.create("RenderWorkload", Workloads.Render.class);
+        render.setUp(shapes, 1200, 900);
+    }
+
+    // paintAppended() grows the board, every iteration starts from the same one
+    @Setup(Level.Iteration)
+    public void reset() {
+        render.reset();
+    }
+
+    @Benchmark
+    public void paintCached() {
+        render.paintCached();
+    }
+
+    @Benchmark
+    public void paintFull() {
+        render.paintFull();
+    }
+
+    @Benchmark
+    public void paintAppended() {
+        render.paintAppended();
+    }
+
+    @Benchmark
+    public void paintUncached() {
+        render.paintUncached();
+    }
+}
@@ -0,0 +1,49 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Encoding the whole board for a joining client: the SYNC frame of fetchBoard() and the push channel,
+// deflated or not, and the Java serialization RMI uses for the reply of syncBoard()
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dwhiteboard.compressLogSize=2147483647"})
+public class SyncBenchmark {
+    @Param({"1000", "100000"})
+    public int shapes;
+
+    private Workloads.Sync sync;
+    private byte[] frame;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        sync = Workloads.create("SyncWorkload", Workloads.Sync.class);
+        sync.setUp(shapes);
+        frame = sync.frame();
+    }
+
+    @Benchmark
+    public byte[] frame() {
+        return sync.frame();
+    }
+
+    @Benchmark
+    public byte[] compressedFrame() {
+        return sync.compressedFrame();
+    }
+
+    @Benchmark
+    public byte[] rmiSerialized() throws IOException {
+        return sync.rmiSerialized();
+    }
+
+    @Benchmark
+    public int readFrame() throws IOException {
+        return sync.readFrame(frame);
+    }
+}
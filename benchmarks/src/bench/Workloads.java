@@ -0,0 +1,65 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+
+// What the benchmarks measure. JMH does not allow benchmarks in the default package, and code in a package
+// cannot name the whiteboard classes, which are all in the default package. So the work is done by default
+// package classes of this module (SyncWorkload, BoardFilesWorkload, ...) that implement these interfaces,
+// created by name in each benchmark's setup. Only interface calls are left in the measured code.
+public final class Workloads {
+    private Workloads() {
+    }
+
+    // Board payloads a client gets from syncBoard() and fetchBoard()
+    public interface Sync {
+        void setUp(int shapes);
+
+        byte[] frame(); // SYNC push frame, as fetchBoard() and the push channel send it
+
+        byte[] compressedFrame(); // The same, deflated as for a client that negotiated compression
+
+        byte[] rmiSerialized() throws IOException; // BoardSync as RMI marshals the reply of syncBoard()
+
+        int readFrame(byte[] frame) throws IOException; // Client side, returns the number of ops
+    }
+
+    // What ServerRemoteObj.save and open run on the I/O thread
+    public interface BoardFiles {
+        void setUp(int shapes, String format, File dir) throws IOException;
+
+        void save() throws IOException;
+
+        int open() throws IOException; // Returns the number of shapes read
+
+        void tearDown();
+    }
+
+    // Painting the board, as the whiteboard panels do it through BoardRaster
+    public interface Render {
+        void setUp(int shapes, int width, int height);
+
+        void paintCached(); // Nothing changed since the last paint, the image is copied
+
+        void paintFull(); // After a clear or open, every shape in sight is drawn again
+
+        void paintAppended(); // One new shape, drawn into the image before it is copied
+
+        void paintUncached(); // Every shape drawn straight to the panel, without the image
+
+        void reset(); // Back to the board of setUp, without the shapes paintAppended() added
+    }
+
+    // One shape from a client to every client over loopback RMI
+    public interface FanOut {
+        void setUp(int clients) throws Exception;
+
+        void drawAndWait() throws Exception; // Returns once every client got the shape
+
+        void tearDown() throws Exception;
+    }
+
+    static <T> T create(String className, Class<T> type) throws ReflectiveOperationException {
+        return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+    }
+}